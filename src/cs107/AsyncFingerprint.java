@@ -0,0 +1,227 @@
+package cs107;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Non-blocking facade over {@link Helper} and {@link Fingerprint}.
+ * <p>
+ * Every method returns immediately with a {@link CompletableFuture} completed
+ * on the executor given at construction. The futures compose with the usual
+ * <code>thenCompose</code>/<code>thenCombine</code> methods.
+ * <p>
+ * Cancelling a future, or letting its deadline expire, skips the work if it has
+ * not started yet. A comparison already running stops at the next anchor
+ * minutia. The composed futures, such as the one returned by
+ * {@link #templateAsync(String)}, pass their own completion down to every
+ * stage: once they are cancelled or expired, the stage running at that time
+ * finishes (or stops, for a comparison) and the following ones are skipped.
+ */
+public final class AsyncFingerprint {
+
+    private final Executor executor;
+
+    /**
+     * Creates a facade running on the common fork-join pool.
+     */
+    public AsyncFingerprint() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a facade running on the given executor.
+     *
+     * @param executor the executor running every computation.
+     */
+    public AsyncFingerprint(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Reads an image as binary.
+     *
+     * @param path the path of the image.
+     * @return the future image, failed with an {@link IllegalArgumentException}
+     * if the image cannot be read.
+     * @see Helper#readBinary(String)
+     */
+    public CompletableFuture<boolean[][]> readBinaryAsync(String path) {
+        return submit(null, cancelled -> readBinary(path));
+    }
+
+    /**
+     * Computes the skeleton of a binary image.
+     *
+     * @param image array containing each pixel's boolean value.
+     * @return the future skeleton.
+     * @see Fingerprint#thin(boolean[][])
+     */
+    public CompletableFuture<boolean[][]> thinAsync(boolean[][] image) {
+        return submit(null, cancelled -> Fingerprint.thin(image));
+    }
+
+    /**
+     * Extracts the minutiae of a skeleton.
+     *
+     * @param skeleton array containing each pixel's boolean value.
+     * @return the future list of minutiae.
+     * @see Fingerprint#extract(boolean[][])
+     */
+    public CompletableFuture<List<int[]>> extractAsync(boolean[][] skeleton) {
+        return submit(null, cancelled -> Fingerprint.extract(skeleton));
+    }
+
+    /**
+     * Reads an image, thins it and extracts its minutiae.
+     *
+     * @param path the path of the image.
+     * @return the future list of minutiae.
+     */
+    public CompletableFuture<List<int[]>> templateAsync(String path) {
+        CompletableFuture<List<int[]>> template = new CompletableFuture<>();
+        templateStages(path, template).whenComplete(relay(template));
+        return template;
+    }
+
+    /**
+     * Compares the minutiae from two fingerprints.
+     *
+     * @param minutiae1 the list of minutiae of the first fingerprint.
+     * @param minutiae2 the list of minutiae of the second fingerprint.
+     * @return the future result of {@link Fingerprint#match(List, List)}.
+     */
+    public CompletableFuture<Boolean> matchAsync(List<int[]> minutiae1, List<int[]> minutiae2) {
+        return matchAsync(minutiae1, minutiae2, MatcherConfig.DEFAULT);
+    }
+
+    /**
+     * Compares the minutiae from two fingerprints with the given parameters.
+     *
+     * @param minutiae1 the list of minutiae of the first fingerprint.
+     * @param minutiae2 the list of minutiae of the second fingerprint.
+     * @param config    the thresholds and the rotation search to use.
+     * @return the future result of
+     * {@link Fingerprint#match(List, List, MatcherConfig)}.
+     */
+    public CompletableFuture<Boolean> matchAsync(List<int[]> minutiae1, List<int[]> minutiae2, MatcherConfig config) {
+        return submit(null, cancelled -> Fingerprint.match(minutiae1, minutiae2, config, cancelled));
+    }
+
+    /**
+     * Compares the minutiae from two fingerprints within a deadline.
+     *
+     * @param minutiae1 the list of minutiae of the first fingerprint.
+     * @param minutiae2 the list of minutiae of the second fingerprint.
+     * @param deadline  the time after which the comparison is abandoned.
+     * @return the future result, failed with a
+     * {@link java.util.concurrent.TimeoutException} if the deadline expires.
+     */
+    public CompletableFuture<Boolean> matchAsync(List<int[]> minutiae1, List<int[]> minutiae2, Duration deadline) {
+        return matchAsync(minutiae1, minutiae2).orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Compares two fingerprint images, extracting both templates in parallel.
+     *
+     * @param path1 the path of the first image.
+     * @param path2 the path of the second image.
+     * @return the future result of the comparison.
+     */
+    public CompletableFuture<Boolean> verifyAsync(String path1, String path2) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        templateStages(path1, result).thenCombine(templateStages(path2, result),
+                        (minutiae1, minutiae2) -> submit(result, cancelled ->
+                                Fingerprint.match(minutiae1, minutiae2, MatcherConfig.DEFAULT, cancelled)))
+                .thenCompose(Function.identity()).whenComplete(relay(result));
+        return result;
+    }
+
+    /**
+     * Compares two fingerprint images within a deadline.
+     *
+     * @param path1    the path of the first image.
+     * @param path2    the path of the second image.
+     * @param deadline the time after which the comparison is abandoned.
+     * @return the future result, failed with a
+     * {@link java.util.concurrent.TimeoutException} if the deadline expires.
+     */
+    public CompletableFuture<Boolean> verifyAsync(String path1, String path2, Duration deadline) {
+        return verifyAsync(path1, path2).orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Chains the stages of {@link #templateAsync(String)}, each of them skipped
+     * once <code>owner</code> is completed.
+     */
+    private CompletableFuture<List<int[]>> templateStages(String path, CompletableFuture<?> owner) {
+        return submit(owner, cancelled -> readBinary(path))
+                .thenCompose(image -> submit(owner, cancelled -> Fingerprint.thin(image)))
+                .thenCompose(skeleton -> submit(owner, cancelled -> Fingerprint.extract(skeleton)));
+    }
+
+    private static boolean[][] readBinary(String path) {
+        boolean[][] image = Helper.readBinary(path);
+        if (image == null) {
+            throw new IllegalArgumentException("Cannot read image " + path);
+        }
+        return image;
+    }
+
+    /**
+     * @return a callback completing <code>target</code> like the future it is
+     * attached to, unless <code>target</code> is already completed.
+     */
+    private static <T> BiConsumer<T, Throwable> relay(CompletableFuture<T> target) {
+        return (value, error) -> {
+            if (error == null) {
+                target.complete(value);
+            } else {
+                target.completeExceptionally(error);
+            }
+        };
+    }
+
+    /**
+     * Runs a task on the executor, unless its future or <code>owner</code> is
+     * already completed (cancelled or expired) when the executor gets to it.
+     *
+     * @param owner the composed future the task is a stage of, or
+     *              <code>null</code> if the task is not part of one.
+     * @param task  the task, which receives a check telling whether it has been
+     *              cancelled so that it can stop while running.
+     * @return the future result of the task, failed with a
+     * {@link CancellationException} if the task is skipped because of
+     * <code>owner</code>.
+     */
+    private <T> CompletableFuture<T> submit(CompletableFuture<?> owner, Function<BooleanSupplier, T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        BooleanSupplier cancelled = owner == null ? future::isDone : () -> future.isDone() || owner.isDone();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                if (cancelled.getAsBoolean()) {
+                    future.cancel(false);
+                    return;
+                }
+                try {
+                    future.complete(task.apply(cancelled));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
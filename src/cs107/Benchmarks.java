@@ -0,0 +1,234 @@
+package cs107;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+/**
+ * Micro-benchmarks of every stage of the pipeline on real fingerprints.
+ * <p>
+ * Each benchmark runs a number of warmup iterations and then of measured
+ * iterations, an iteration calling the operation repeatedly for a fixed time.
+ * The score is the average time of one operation with the standard deviation
+ * over the iterations, and the allocation is the number of bytes allocated by
+ * one operation, as reported by the JVM for the benchmark thread. Results of
+ * the operations are consumed so that the JIT cannot remove them.
+ * <p>
+ * Every benchmark is run on the central part of the images, cropped to each of
+ * the given sizes, so that the cost can be related to the image area.
+ * Comparisons are split between a genuine pair (two impressions of the same
+ * finger) and an impostor pair (two different fingers).
+ * <p>
+ * Usage: <code>Benchmarks [-wi warmups] [-i iterations] [-t millis]
+ * [-s size%,...] [regex]</code>, for instance
+ * <code>Benchmarks -s 100,50 match</code>.
+ */
+public final class Benchmarks {
+
+    private static final String GENUINE_1 = "resources/fingerprints/1_1.png";
+    private static final String GENUINE_2 = "resources/fingerprints/1_2.png";
+    private static final String IMPOSTOR = "resources/fingerprints/2_1.png";
+    private static final int BATCH = 8;
+
+    /**
+     * The operation being measured.
+     */
+    private interface Operation {
+        Object run();
+    }
+
+    /**
+     * Keeps the results of the operations alive.
+     */
+    private static volatile int sink;
+
+    private int warmups = 2;
+    private int iterations = 5;
+    private long iterationMillis = 1000;
+
+    /**
+     * The inputs of the benchmarks at one image size.
+     */
+    private static final class State {
+        final int size;
+        final boolean[][] image1;
+        final boolean[][] skeleton1;
+        final SkeletonLabels labels1;
+        final List<int[]> minutiae1;
+        final List<int[]> minutiae2;
+        final List<int[]> impostor;
+        final RotatedTemplate rotated2;
+        final RotatedTemplate rotatedImpostor;
+        final List<List<int[]>> probes = new ArrayList<>();
+        final VerificationBatcher<String> batcher;
+        final int[] minutia;
+
+        State(int size) {
+            this.size = size;
+            image1 = crop(Helper.readBinary(GENUINE_1), size);
+            skeleton1 = Fingerprint.thin(image1);
+            labels1 = SkeletonLabels.of(skeleton1);
+            minutiae1 = Fingerprint.extract(skeleton1);
+            minutiae2 = Fingerprint.extract(Fingerprint.thin(crop(Helper.readBinary(GENUINE_2), size)));
+            impostor = Fingerprint.extract(Fingerprint.thin(crop(Helper.readBinary(IMPOSTOR), size)));
+            rotated2 = new RotatedTemplate(minutiae2);
+            rotatedImpostor = new RotatedTemplate(impostor);
+            for (int i = 0; i < BATCH; i++) {
+                probes.add(i % 2 == 0 ? minutiae1 : impostor);
+            }
+            // a full batch is compared at once on the calling thread
+            batcher = new VerificationBatcher<>(id -> minutiae2, 60000, BATCH, Runnable::run);
+            minutia = minutiae1.isEmpty() ? new int[]{skeleton1.length / 2, skeleton1[0].length / 2, 0} : minutiae1.get(0);
+        }
+    }
+
+    /**
+     * Keeps the central part of an image.
+     *
+     * @param image the image.
+     * @param size  the percentage of each dimension to keep.
+     * @return the cropped image.
+     */
+    static boolean[][] crop(boolean[][] image, int size) {
+        int rows = Math.max(1, image.length * size / 100);
+        int cols = Math.max(1, image[0].length * size / 100);
+        int top = (image.length - rows) / 2;
+        int left = (image[0].length - cols) / 2;
+        boolean[][] cropped = new boolean[rows][cols];
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(image[top + row], left, cropped[row], 0, cols);
+        }
+        return cropped;
+    }
+
+    private void runAll(Pattern filter, int[] sizes) {
+        System.out.printf("%-32s %5s %12s %10s %14s%n", "Benchmark", "size", "ms/op", "error", "alloc B/op");
+        for (int size : sizes) {
+            State state = new State(size);
+            benchmark(filter, "readBinary", state, () -> Helper.readBinary(GENUINE_1));
+            benchmark(filter, "thin", state, () -> Fingerprint.thin(state.image1));
+            benchmark(filter, "connectedPixels", state, () -> Fingerprint.connectedPixels(state.skeleton1,
+                    state.minutia[0], state.minutia[1], Fingerprint.ORIENTATION_DISTANCE));
+            benchmark(filter, "SkeletonLabels.of", state, () -> SkeletonLabels.of(state.skeleton1));
+            benchmark(filter, "SkeletonLabels.connectedPixels", state, () -> state.labels1.connectedPixels(
+                    state.minutia[0], state.minutia[1], Fingerprint.ORIENTATION_DISTANCE));
+            benchmark(filter, "computeOrientation", state, () -> Fingerprint.computeOrientation(state.skeleton1,
+                    state.minutia[0], state.minutia[1], Fingerprint.ORIENTATION_DISTANCE));
+            benchmark(filter, "extract", state, () -> Fingerprint.extract(state.skeleton1));
+            benchmark(filter, "matchingMinutiaeCount.genuine", state, () -> Fingerprint.matchingMinutiaeCount(
+                    state.minutiae1, state.minutiae2, Fingerprint.DISTANCE_THRESHOLD, Fingerprint.ORIENTATION_THRESHOLD));
+            benchmark(filter, "matchingMinutiaeCount.impostor", state, () -> Fingerprint.matchingMinutiaeCount(
+                    state.minutiae1, state.impostor, Fingerprint.DISTANCE_THRESHOLD, Fingerprint.ORIENTATION_THRESHOLD));
+            benchmark(filter, "match.genuine", state, () -> Fingerprint.match(state.minutiae1, state.minutiae2));
+            benchmark(filter, "match.impostor", state, () -> Fingerprint.match(state.minutiae1, state.impostor));
+            benchmark(filter, "RotatedTemplate.match.genuine", state, () -> state.rotated2.match(state.minutiae1));
+            benchmark(filter, "RotatedTemplate.match.impostor", state,
+                    () -> state.rotatedImpostor.match(state.minutiae1));
+            benchmark(filter, "RotatedTemplate.new", state, () -> new RotatedTemplate(state.minutiae2));
+            benchmark(filter, "verify." + BATCH + ".individual", state, () -> {
+                int matches = 0;
+                for (List<int[]> probe : state.probes) {
+                    matches += Fingerprint.match(probe, state.minutiae2) ? 1 : 0;
+                }
+                return matches;
+            });
+            benchmark(filter, "verify." + BATCH + ".batched", state, () -> {
+                List<CompletableFuture<Boolean>> results = new ArrayList<>();
+                for (List<int[]> probe : state.probes) {
+                    results.add(state.batcher.verify("template", probe));
+                }
+                int matches = 0;
+                for (CompletableFuture<Boolean> result : results) {
+                    matches += result.join() ? 1 : 0;
+                }
+                return matches;
+            });
+        }
+    }
+
+    private void benchmark(Pattern filter, String name, State state, Operation operation) {
+        if (!filter.matcher(name).find()) {
+            return;
+        }
+        for (int i = 0; i < warmups; i++) {
+            iteration(operation);
+        }
+        double[] times = new double[iterations];
+        double allocated = 0;
+        for (int i = 0; i < iterations; i++) {
+            double[] result = iteration(operation);
+            times[i] = result[0];
+            allocated += result[1];
+        }
+        double mean = 0;
+        for (double time : times) {
+            mean += time / times.length;
+        }
+        double variance = 0;
+        for (double time : times) {
+            variance += (time - mean) * (time - mean) / Math.max(1, times.length - 1);
+        }
+        System.out.printf("%-32s %4d%% %12.3f %10.3f %14.0f%n", name, state.size, mean, Math.sqrt(variance),
+                allocated / iterations);
+    }
+
+    /**
+     * Calls the operation for the duration of an iteration, at least once.
+     *
+     * @return the average time of an operation in milliseconds and the average
+     * number of bytes it allocated.
+     */
+    private double[] iteration(Operation operation) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long end = System.nanoTime() + iterationMillis * 1000000;
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long operations = 0;
+        int hash = 0;
+        do {
+            hash += System.identityHashCode(operation.run());
+            operations++;
+        } while (System.nanoTime() < end);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        sink = hash;
+        return new double[]{elapsed / 1e6 / operations, (double) allocated / operations};
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args the options described in the class documentation.
+     */
+    public static void main(String[] args) {
+        Benchmarks benchmarks = new Benchmarks();
+        int[] sizes = {100, 75, 50};
+        Pattern filter = Pattern.compile("");
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-wi":
+                    benchmarks.warmups = Integer.parseInt(args[++i]);
+                    break;
+                case "-i":
+                    benchmarks.iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-t":
+                    benchmarks.iterationMillis = Long.parseLong(args[++i]);
+                    break;
+                case "-s":
+                    List<Integer> parsed = new ArrayList<>();
+                    for (String size : args[++i].split(",")) {
+                        parsed.add(Integer.parseInt(size.trim()));
+                    }
+                    sizes = parsed.stream().mapToInt(Integer::intValue).toArray();
+                    break;
+                default:
+                    filter = Pattern.compile(args[i]);
+            }
+        }
+        benchmarks.runAll(filter, sizes);
+    }
+}
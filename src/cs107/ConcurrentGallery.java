@@ -0,0 +1,243 @@
+package cs107;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A gallery of templates that can be searched while templates are enrolled and
+ * deleted.
+ * <p>
+ * The templates are spread over segments by the hash of their identifier.
+ * Segments are never modified: enrolling or deleting a template copies its
+ * segment with the change and installs the copy in a new array of segments,
+ * the root, with a compare-and-set. Writers take no lock and only copy one
+ * segment, again if another writer installed a root first. Readers take the
+ * root once and search it without any lock: they see every template enrolled
+ * before and none enrolled after, whatever happens during the search.
+ * <p>
+ * {@link #identify(List, MatcherConfig)} compares the probe with each segment
+ * in parallel on the executor given at construction, using
+ * {@link Fingerprint#match(List, List, MatcherConfig)}.
+ */
+public final class ConcurrentGallery {
+
+    /**
+     * The number of segments of a gallery created without one.
+     */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    /**
+     * The templates of one segment, in enrollment order. Never modified once
+     * published.
+     */
+    private static final class Segment {
+        static final Segment EMPTY = new Segment(new ArrayList<>(), new ArrayList<>());
+
+        final ArrayList<String> ids;
+        final ArrayList<List<int[]>> templates;
+
+        Segment(ArrayList<String> ids, ArrayList<List<int[]>> templates) {
+            this.ids = ids;
+            this.templates = templates;
+        }
+
+        /**
+         * @return a copy of the segment with the template added, or replacing
+         * the one with the same identifier.
+         */
+        Segment with(String id, List<int[]> template) {
+            ArrayList<String> newIds = new ArrayList<>(ids);
+            ArrayList<List<int[]>> newTemplates = new ArrayList<>(templates);
+            int index = ids.indexOf(id);
+            if (index >= 0) {
+                newTemplates.set(index, template);
+            } else {
+                newIds.add(id);
+                newTemplates.add(template);
+            }
+            return new Segment(newIds, newTemplates);
+        }
+
+        /**
+         * @return a copy of the segment without the template at the index.
+         */
+        Segment without(int index) {
+            ArrayList<String> newIds = new ArrayList<>(ids);
+            ArrayList<List<int[]>> newTemplates = new ArrayList<>(templates);
+            newIds.remove(index);
+            newTemplates.remove(index);
+            return new Segment(newIds, newTemplates);
+        }
+
+        List<String> matches(List<int[]> probe, MatcherConfig config) {
+            ArrayList<String> matches = new ArrayList<>();
+            for (int i = 0; i < ids.size(); i++) {
+                if (Fingerprint.match(probe, templates.get(i), config)) {
+                    matches.add(ids.get(i));
+                }
+            }
+            return matches;
+        }
+    }
+
+    private final AtomicReference<Segment[]> root;
+    private final Executor executor;
+
+    /**
+     * Creates an empty gallery of {@link #DEFAULT_SEGMENTS} segments, searched
+     * on the common fork-join pool.
+     */
+    public ConcurrentGallery() {
+        this(DEFAULT_SEGMENTS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an empty gallery.
+     *
+     * @param segments the number of segments, at least 1.
+     * @param executor the executor searching the segments.
+     */
+    public ConcurrentGallery(int segments, Executor executor) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("A gallery needs at least one segment, not " + segments);
+        }
+        Segment[] empty = new Segment[segments];
+        Arrays.fill(empty, Segment.EMPTY);
+        this.root = new AtomicReference<>(empty);
+        this.executor = executor;
+    }
+
+    private int segmentOf(String id, int segments) {
+        return Math.floorMod(id.hashCode(), segments);
+    }
+
+    /**
+     * Enrolls a template, replacing the one with the same identifier if any.
+     *
+     * @param id       the identifier of the template.
+     * @param minutiae the list of minutiae of the template, which must not be
+     *                 modified afterwards.
+     */
+    public void enroll(String id, List<int[]> minutiae) {
+        Segment[] current;
+        Segment[] updated;
+        do {
+            current = root.get();
+            int segment = segmentOf(id, current.length);
+            updated = current.clone();
+            updated[segment] = current[segment].with(id, minutiae);
+        } while (!root.compareAndSet(current, updated));
+    }
+
+    /**
+     * Deletes a template.
+     *
+     * @param id the identifier of the template.
+     * @return <code>true</code> if the template was in the gallery.
+     */
+    public boolean delete(String id) {
+        Segment[] current;
+        Segment[] updated;
+        do {
+            current = root.get();
+            int segment = segmentOf(id, current.length);
+            int index = current[segment].ids.indexOf(id);
+            if (index < 0) {
+                return false;
+            }
+            updated = current.clone();
+            updated[segment] = current[segment].without(index);
+        } while (!root.compareAndSet(current, updated));
+        return true;
+    }
+
+    /**
+     * @param id the identifier of the template.
+     * @return the list of minutiae of the template, or <code>null</code> if
+     * it is not in the gallery.
+     */
+    public List<int[]> get(String id) {
+        Segment[] segments = root.get();
+        Segment segment = segments[segmentOf(id, segments.length)];
+        int index = segment.ids.indexOf(id);
+        return index < 0 ? null : segment.templates.get(index);
+    }
+
+    /**
+     * @return the number of templates.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : root.get()) {
+            size += segment.ids.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the templates of the gallery at one point in time, by identifier.
+     */
+    public Map<String, List<int[]>> snapshot() {
+        LinkedHashMap<String, List<int[]>> templates = new LinkedHashMap<>();
+        for (Segment segment : root.get()) {
+            for (int i = 0; i < segment.ids.size(); i++) {
+                templates.put(segment.ids.get(i), segment.templates.get(i));
+            }
+        }
+        return Collections.unmodifiableMap(templates);
+    }
+
+    /**
+     * Compares a probe with a template of the gallery.
+     *
+     * @param id    the identifier of the template.
+     * @param probe the list of minutiae of the probe.
+     * @return <code>true</code> if the template is in the gallery and matches
+     * the probe.
+     */
+    public boolean verify(String id, List<int[]> probe) {
+        List<int[]> template = get(id);
+        return template != null && Fingerprint.match(probe, template);
+    }
+
+    /**
+     * Finds the templates matching a probe.
+     *
+     * @param probe the list of minutiae of the probe.
+     * @return the identifiers of the matching templates.
+     */
+    public List<String> identify(List<int[]> probe) {
+        return identify(probe, MatcherConfig.DEFAULT);
+    }
+
+    /**
+     * Finds the templates matching a probe, searching the segments in
+     * parallel.
+     *
+     * @param probe  the list of minutiae of the probe.
+     * @param config the parameters of the comparisons.
+     * @return the identifiers of the matching templates, segment after segment.
+     */
+    public List<String> identify(List<int[]> probe, MatcherConfig config) {
+        Segment[] segments = root.get();
+        List<CompletableFuture<List<String>>> searches = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (!segment.ids.isEmpty()) {
+                searches.add(CompletableFuture.supplyAsync(() -> segment.matches(probe, config), executor));
+            }
+        }
+        ArrayList<String> matches = new ArrayList<>();
+        for (CompletableFuture<List<String>> search : searches) {
+            matches.addAll(search.join());
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,269 @@
+package cs107;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One template merging several impressions of the same finger.
+ * <p>
+ * The first impression is the reference: every other impression is brought
+ * into its frame with the alignment found by
+ * {@link Fingerprint#bestAlignment(List, List, MatcherConfig)} against the
+ * reference or, failing that, against an impression already registered. An
+ * impression matching none of them is left out. Each minutia of a registered
+ * impression is then merged with the closest minutia already in the template
+ * that it would match, or added as a new one. A merged minutia is at the mean
+ * position and orientation of the minutiae it gathers, and its support is
+ * their number: the number of impressions where it was seen.
+ * <p>
+ * A probe is compared with the minutiae seen in at least
+ * {@link #DEFAULT_MIN_SUPPORT} impressions. Minutiae seen once are mostly
+ * noise of one impression, and leaving them out keeps the template from
+ * matching everything; minutiae seen in several impressions can still come
+ * from different parts of the finger, so a partial print matches as long as it
+ * overlaps the union of the impressions. One comparison with the template
+ * replaces one comparison per impression.
+ */
+public final class ConsolidatedTemplate {
+
+    /**
+     * The number of impressions in which a minutia must be seen to be compared
+     * with probes, when at least that many impressions are registered.
+     */
+    public static final int DEFAULT_MIN_SUPPORT = 2;
+
+    /**
+     * The minutiae of the impressions gathered into one.
+     */
+    private static final class Cluster {
+        final int type;
+        double rowSum;
+        double colSum;
+        double cosSum;
+        double sinSum;
+        int support;
+        int[] minutia;
+
+        Cluster(int[] minutia) {
+            this.type = minutia.length > 3 ? minutia[3] : 0;
+            add(minutia);
+        }
+
+        void add(int[] minutia) {
+            rowSum += minutia[0];
+            colSum += minutia[1];
+            cosSum += Math.cos(Math.toRadians(minutia[2]));
+            sinSum += Math.sin(Math.toRadians(minutia[2]));
+            support++;
+            int angle = (int) Math.round(Math.toDegrees(Math.atan2(sinSum, cosSum)));
+            this.minutia = new int[]{(int) Math.round(rowSum / support), (int) Math.round(colSum / support),
+                    Math.floorMod(angle, 360), type};
+        }
+    }
+
+    private final List<int[]> minutiae;
+    private final int[] support;
+    private final int registered;
+    private final List<int[]> template;
+
+    private ConsolidatedTemplate(List<Cluster> clusters, int registered, int minSupport) {
+        ArrayList<int[]> minutiae = new ArrayList<>();
+        ArrayList<int[]> template = new ArrayList<>();
+        this.support = new int[clusters.size()];
+        for (int i = 0; i < clusters.size(); i++) {
+            minutiae.add(clusters.get(i).minutia);
+            support[i] = clusters.get(i).support;
+            if (support[i] >= Math.min(minSupport, registered)) {
+                template.add(clusters.get(i).minutia);
+            }
+        }
+        this.minutiae = Collections.unmodifiableList(minutiae);
+        this.registered = registered;
+        this.template = Collections.unmodifiableList(template);
+    }
+
+    /**
+     * The parameters of the registration used by default: the thresholds of
+     * {@link MatcherConfig#DEFAULT} with the pyramid matcher, since an
+     * exhaustive search of the best alignment takes seconds per pair of
+     * impressions.
+     */
+    public static final MatcherConfig DEFAULT_CONFIG = MatcherConfig.DEFAULT.withPyramid(4, 16);
+
+    /**
+     * Consolidates the impressions of a finger with {@link #DEFAULT_CONFIG}
+     * and {@link #DEFAULT_MIN_SUPPORT}.
+     *
+     * @param impressions the lists of minutiae of the impressions, the first
+     *                    one being the reference.
+     * @return the consolidated template.
+     */
+    public static ConsolidatedTemplate of(List<List<int[]>> impressions) {
+        return of(impressions, DEFAULT_CONFIG, DEFAULT_MIN_SUPPORT);
+    }
+
+    /**
+     * Consolidates the impressions of a finger.
+     *
+     * @param impressions the lists of minutiae of the impressions, the first
+     *                    one being the reference.
+     * @param config      the parameters of the registration and of the merge:
+     *                    an impression is registered if it matches a
+     *                    registered one, and two minutiae are merged if they
+     *                    match. Without {@link MatcherConfig#pyramidCandidates}
+     *                    the registration tries every alignment, which takes
+     *                    about 25 s per finger of 4 impressions.
+     * @param minSupport  the number of impressions in which a minutia must be
+     *                    seen to be compared with probes.
+     * @return the consolidated template.
+     */
+    public static ConsolidatedTemplate of(List<List<int[]>> impressions, MatcherConfig config, int minSupport) {
+        if (impressions.isEmpty()) {
+            throw new IllegalArgumentException("No impression to consolidate");
+        }
+        List<int[]> reference = impressions.get(0);
+        ArrayList<Cluster> clusters = new ArrayList<>();
+        for (int[] minutia : reference) {
+            clusters.add(new Cluster(minutia));
+        }
+        // the registered impressions, in the frame of the reference
+        ArrayList<List<int[]>> frames = new ArrayList<>();
+        frames.add(reference);
+        ArrayList<List<int[]>> pending = new ArrayList<>(impressions.subList(1, impressions.size()));
+        boolean registeredOne = true;
+        while (registeredOne) {
+            registeredOne = false;
+            for (int i = 0; i < pending.size(); i++) {
+                List<int[]> aligned = register(frames, pending.get(i), config);
+                if (aligned != null) {
+                    merge(clusters, aligned, config);
+                    frames.add(aligned);
+                    pending.remove(i--);
+                    registeredOne = true;
+                }
+            }
+        }
+        return new ConsolidatedTemplate(clusters, frames.size(), minSupport);
+    }
+
+    /**
+     * Aligns an impression on the first registered impression it matches.
+     *
+     * @return the impression in the frame of the reference, with its angles
+     * between 0 and 359 as extracted ones, or <code>null</code> if it matches
+     * none of the registered impressions.
+     */
+    private static List<int[]> register(List<List<int[]>> frames, List<int[]> impression, MatcherConfig config) {
+        for (List<int[]> frame : frames) {
+            int[] alignment = Fingerprint.bestAlignment(frame, impression, config);
+            if (alignment != null && alignment[5] >= config.foundThreshold) {
+                List<int[]> aligned = Fingerprint.applyTransformation(impression, alignment[0], alignment[1],
+                        alignment[2], alignment[3], alignment[4]);
+                // the rotation leaves angles out of [0, 360), even negative
+                for (int[] minutia : aligned) {
+                    minutia[2] = Math.floorMod(minutia[2], 360);
+                }
+                return aligned;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Merges each minutia of an aligned impression with the closest matching
+     * cluster not yet given a minutia of this impression, or starts a new one.
+     */
+    private static void merge(List<Cluster> clusters, List<int[]> aligned, MatcherConfig config) {
+        int existing = clusters.size();
+        boolean[] taken = new boolean[existing];
+        int maxDistance = config.distanceThreshold * config.distanceThreshold;
+        for (int[] minutia : aligned) {
+            int closest = -1;
+            int closestDistance = Integer.MAX_VALUE;
+            for (int c = 0; c < existing; c++) {
+                int[] merged = clusters.get(c).minutia;
+                int rowDiff = merged[0] - minutia[0];
+                int colDiff = merged[1] - minutia[1];
+                int distance = rowDiff * rowDiff + colDiff * colDiff;
+                // the angles are compared around the circle: 359 is next to 1
+                int angleDiff = Math.abs(merged[2] - minutia[2]);
+                if (!taken[c] && distance <= maxDistance && distance < closestDistance
+                        && Math.min(angleDiff, 360 - angleDiff) <= config.orientationThreshold
+                        && Fingerprint.sameType(merged, minutia)) {
+                    closest = c;
+                    closestDistance = distance;
+                }
+            }
+            if (closest >= 0) {
+                taken[closest] = true;
+                clusters.get(closest).add(minutia);
+            } else {
+                clusters.add(new Cluster(minutia));
+            }
+        }
+    }
+
+    /**
+     * @return the number of impressions merged into the template, the
+     * reference included.
+     */
+    public int registeredImpressions() {
+        return registered;
+    }
+
+    /**
+     * @return every merged minutia, whatever its support, in the frame of the
+     * reference impression.
+     */
+    public List<int[]> minutiae() {
+        return minutiae;
+    }
+
+    /**
+     * @param index the index of a minutia in {@link #minutiae()}.
+     * @return the number of impressions in which the minutia was seen.
+     */
+    public int support(int index) {
+        return support[index];
+    }
+
+    /**
+     * @return the minutiae compared with probes.
+     */
+    public List<int[]> template() {
+        return template;
+    }
+
+    /**
+     * Compares a probe with the template.
+     *
+     * @param probe the list of minutiae of the probe.
+     * @return <code>true</code> if they match and <code>false</code> otherwise.
+     */
+    public boolean match(List<int[]> probe) {
+        return match(probe, MatcherConfig.DEFAULT);
+    }
+
+    /**
+     * Compares a probe with the template.
+     *
+     * @param probe  the list of minutiae of the probe.
+     * @param config the parameters of the comparison.
+     * @return <code>true</code> if they match and <code>false</code> otherwise.
+     */
+    public boolean match(List<int[]> probe, MatcherConfig config) {
+        return Fingerprint.match(probe, template, config);
+    }
+
+    /**
+     * Computes the score of a probe against the template.
+     *
+     * @param probe  the list of minutiae of the probe.
+     * @param config the parameters of the comparison.
+     * @return the highest number of matching minutiae over all the alignments.
+     */
+    public int score(List<int[]> probe, MatcherConfig config) {
+        return Fingerprint.matchScore(probe, template, config);
+    }
+}
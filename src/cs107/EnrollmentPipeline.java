@@ -0,0 +1,336 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Enrolls every image of a directory tree through a staged pipeline.
+ * <p>
+ * Each {@link Stage} has its own pool of worker threads and the stages are
+ * connected by bounded queues: when a stage falls behind, the queue in front of
+ * it fills up and the upstream stages block, down to the directory walk. The
+ * images are therefore streamed, and at most a few times the queue capacity of
+ * them are in memory at any time, whatever the size of the tree.
+ */
+public final class EnrollmentPipeline {
+
+    /**
+     * The stages of the pipeline, in order.
+     */
+    public enum Stage {
+        DECODE, BINARIZE, THIN, EXTRACT, PERSIST
+    }
+
+    /**
+     * The unit of work moving through the stages.
+     */
+    private static final class Item {
+        final Path path;
+        final String id;
+        int[][] argb;
+        boolean[][] image;
+        List<int[]> minutiae;
+
+        Item(Path path, String id) {
+            this.path = path;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Marks the end of the stream in a queue.
+     */
+    private static final Item END = new Item(null, null);
+
+    private final int queueCapacity;
+    private final BiConsumer<String, List<int[]>> sink;
+    private final Map<Stage, Integer> workers = new EnumMap<>(Stage.class);
+
+    /**
+     * Creates a pipeline with one worker for decoding, binarization and
+     * persistence, and one worker per processor for thinning and extraction.
+     *
+     * @param queueCapacity the capacity of each queue between two stages.
+     * @param sink          receives the identifier and the minutiae of each
+     *                      enrolled image. It is called by the persist workers,
+     *                      so it must be thread-safe if there are several. An
+     *                      image whose sink throws a runtime exception is
+     *                      counted as failed.
+     */
+    public EnrollmentPipeline(int queueCapacity, BiConsumer<String, List<int[]>> sink) {
+        this.queueCapacity = queueCapacity;
+        this.sink = sink;
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (Stage stage : Stage.values()) {
+            workers.put(stage, 1);
+        }
+        workers.put(Stage.THIN, processors);
+        workers.put(Stage.EXTRACT, processors);
+    }
+
+    /**
+     * Returns a sink writing each template next to the others in a directory,
+     * using {@link TemplateFormat#writeTemplate(String, List)}.
+     *
+     * @param directory the output directory, which must exist.
+     * @return the sink, throwing an {@link UncheckedIOException} when a
+     * template cannot be written.
+     */
+    public static BiConsumer<String, List<int[]>> templateFiles(String directory) {
+        return (id, minutiae) -> {
+            String path = Paths.get(directory, id.replace('/', '_') + ".fpt").toString();
+            if (!TemplateFormat.writeTemplate(path, minutiae)) {
+                throw new UncheckedIOException(new IOException("Cannot write the template " + path));
+            }
+        };
+    }
+
+    /**
+     * Sets the number of worker threads of a stage.
+     *
+     * @param stage   the stage.
+     * @param threads the number of threads, at least <code>1</code>.
+     * @return this pipeline.
+     */
+    public EnrollmentPipeline workers(Stage stage, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("A stage needs at least one worker");
+        }
+        workers.put(stage, threads);
+        return this;
+    }
+
+    /**
+     * Enrolls every <code>.png</code> image found under the root directory. The
+     * identifier of an image is its path relative to the root, without the
+     * extension.
+     *
+     * @param root the root of the directory tree.
+     * @return the statistics of each stage.
+     * @throws IOException          if the directory tree cannot be walked.
+     * @throws InterruptedException if interrupted while waiting for the stages.
+     */
+    public Report run(Path root) throws IOException, InterruptedException {
+        ArrayList<BlockingQueue<Item>> queues = new ArrayList<>();
+        for (int i = 0; i < Stage.values().length; i++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        Report report = new Report();
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (Stage stage : Stage.values()) {
+            BlockingQueue<Item> input = queues.get(stage.ordinal());
+            BlockingQueue<Item> output = stage.ordinal() + 1 < queues.size() ? queues.get(stage.ordinal() + 1) : null;
+            int count = workers.get(stage);
+            AtomicInteger running = new AtomicInteger(count);
+            int downstream = output == null ? 0 : workers.get(Stage.values()[stage.ordinal() + 1]);
+            for (int i = 0; i < count; i++) {
+                Thread thread = new Thread(() -> work(stage, input, output, running, downstream, report),
+                        "enroll-" + stage.name().toLowerCase() + "-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+        }
+
+        long start = System.nanoTime();
+        BlockingQueue<Item> first = queues.get(0);
+        try (Stream<Path> files = Files.walk(root)) {
+            Iterator<Path> iterator = files.filter(p -> p.toString().endsWith(".png")).iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                String id = root.relativize(path).toString().replace('\\', '/');
+                first.put(new Item(path, id.substring(0, id.length() - ".png".length())));
+            }
+        } finally {
+            for (int i = 0; i < workers.get(Stage.DECODE); i++) {
+                first.put(END);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            report.elapsedNanos = System.nanoTime() - start;
+        }
+        return report;
+    }
+
+    private void work(Stage stage, BlockingQueue<Item> input, BlockingQueue<Item> output,
+                      AtomicInteger running, int downstream, Report report) {
+        try {
+            Item item;
+            while ((item = input.take()) != END) {
+                long start = System.nanoTime();
+                boolean ok;
+                try {
+                    ok = process(stage, item);
+                } catch (RuntimeException e) {
+                    // a corrupt image or a failing sink only loses its own item
+                    ok = false;
+                }
+                report.busyNanos.get(stage).addAndGet(System.nanoTime() - start);
+                if (!ok) {
+                    report.failed.get(stage).incrementAndGet();
+                    continue;
+                }
+                report.processed.get(stage).incrementAndGet();
+                if (output != null) {
+                    output.put(item);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // the last worker of the stage forwards the end to every worker of the next one
+            if (running.decrementAndGet() == 0 && output != null) {
+                for (int i = 0; i < downstream; i++) {
+                    forwardEnd(output);
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts the end of the stream in a queue, even if the calling thread is
+     * interrupted, so that the next stage always terminates.
+     */
+    private static void forwardEnd(BlockingQueue<Item> output) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                output.put(END);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Applies a stage to an item, dropping what the next stages do not need.
+     *
+     * @return <code>false</code> if the item could not be processed.
+     */
+    private boolean process(Stage stage, Item item) {
+        switch (stage) {
+            case DECODE:
+                item.argb = Helper.readARGB(item.path.toString());
+                return item.argb != null;
+            case BINARIZE:
+                item.image = Helper.toBinary(item.argb);
+                item.argb = null;
+                return true;
+            case THIN:
+                item.image = Fingerprint.thin(item.image);
+                return true;
+            case EXTRACT:
+                item.minutiae = Fingerprint.extract(item.image);
+                item.image = null;
+                return true;
+            case PERSIST:
+                sink.accept(item.id, item.minutiae);
+                return true;
+            default:
+                throw new IllegalStateException("Unknown stage " + stage);
+        }
+    }
+
+    /**
+     * Per-stage statistics of a run.
+     */
+    public static final class Report {
+        private final Map<Stage, AtomicLong> processed = counters();
+        private final Map<Stage, AtomicLong> failed = counters();
+        private final Map<Stage, AtomicLong> busyNanos = counters();
+        private long elapsedNanos;
+
+        private static Map<Stage, AtomicLong> counters() {
+            Map<Stage, AtomicLong> counters = new EnumMap<>(Stage.class);
+            for (Stage stage : Stage.values()) {
+                counters.put(stage, new AtomicLong());
+            }
+            return counters;
+        }
+
+        /**
+         * @param stage the stage.
+         * @return the number of images the stage processed successfully.
+         */
+        public long processed(Stage stage) {
+            return processed.get(stage).get();
+        }
+
+        /**
+         * @param stage the stage.
+         * @return the number of images the stage failed to process.
+         */
+        public long failed(Stage stage) {
+            return failed.get(stage).get();
+        }
+
+        /**
+         * @param stage the stage.
+         * @return the number of images processed per second of wall-clock time.
+         */
+        public double throughput(Stage stage) {
+            return processed(stage) * 1e9 / Math.max(elapsedNanos, 1);
+        }
+
+        /**
+         * @param stage the stage.
+         * @return the average time spent by a worker on one image, in
+         * milliseconds.
+         */
+        public double averageMillis(Stage stage) {
+            long count = processed(stage) + failed(stage);
+            return count == 0 ? 0 : busyNanos.get(stage).get() / 1e6 / count;
+        }
+
+        /**
+         * @return the wall-clock duration of the run, in milliseconds.
+         */
+        public double elapsedMillis() {
+            return elapsedNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(String.format("enrolled %d images in %.0f ms%n",
+                    processed(Stage.PERSIST), elapsedMillis()));
+            for (Stage stage : Stage.values()) {
+                builder.append(String.format("%-9s %7d ok %5d failed %9.1f img/s %9.2f ms/img%n", stage,
+                        processed(stage), failed(stage), throughput(stage), averageMillis(stage)));
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Enrolls a directory tree into template files.
+     *
+     * @param args the directory to enroll and the output directory.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 2) {
+            System.out.println("Usage: EnrollmentPipeline <image directory> <template directory>");
+            return;
+        }
+        Files.createDirectories(Paths.get(args[1]));
+        Report report = new EnrollmentPipeline(16, templateFiles(args[1])).run(Paths.get(args[0]));
+        System.out.print(report);
+    }
+}
@@ -0,0 +1,363 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Measures the accuracy and the speed of the matcher on a dataset.
+ * <p>
+ * The dataset is a directory of images named <code>finger_impression.png</code>,
+ * like <code>resources/fingerprints</code>. Every pair of images is compared
+ * once: pairs of the same finger are genuine, the others are impostors. From
+ * the scores the evaluation computes, for every threshold, the false accept
+ * rate (impostor pairs scoring at least the threshold) and the false reject
+ * rate (genuine pairs scoring below it), the equal error rate where both
+ * meet, and the latency percentiles of a comparison. Templates and pairs are
+ * processed in parallel.
+ * <p>
+ * The extraction and the scoring are chosen by name among
+ * {@link #EXTRACTORS} and {@link #SCORERS}, so an optimization can be checked
+ * against the reference implementation on the same data.
+ * <p>
+ * Usage: <code>Evaluation [-fingers n] [-impressions n] [-threads n]
+ * [-extractor name] [-scorer name] [-det file.csv] [directory]</code>
+ */
+public final class Evaluation {
+
+    /**
+     * Computes the score of a probe against a template, higher meaning more
+     * similar.
+     */
+    public interface Scorer {
+        int score(List<int[]> probe, List<int[]> template);
+    }
+
+    /**
+     * The ways of turning a binary image into minutiae, by name.
+     */
+    public static final Map<String, Function<boolean[][], List<int[]>>> EXTRACTORS = new LinkedHashMap<>();
+
+    /**
+     * The ways of scoring two templates, by name. Each call of a supplier gives
+     * a new scorer, so that what a scorer caches lives as long as one run.
+     */
+    public static final Map<String, Supplier<Scorer>> SCORERS = new LinkedHashMap<>();
+
+    static {
+        EXTRACTORS.put("reference", image -> Fingerprint.extract(Fingerprint.thin(image)));
+        EXTRACTORS.put("segmented", image -> {
+            Segmentation mask = Segmentation.segment(image);
+            return Fingerprint.extract(Fingerprint.thin(image, mask), mask);
+        });
+        EXTRACTORS.put("sparse", image -> SparseImage.of(image).thin().extract());
+        EXTRACTORS.put("graph", image -> RidgeGraph.of(Fingerprint.thin(image)).minutiae());
+        EXTRACTORS.put("filtered", image -> {
+            boolean[][] skeleton = Fingerprint.thin(image);
+            return MinutiaeFilter.DEFAULT.filter(skeleton, Fingerprint.extract(skeleton)).minutiae;
+        });
+        SCORERS.put("reference", () -> Fingerprint::matchScore);
+        SCORERS.put("coarse-to-fine", () -> (probe, template) -> Fingerprint.matchScore(probe, template,
+                MatcherConfig.DEFAULT.withAngleOffset(12).withCoarseSearch(4, 4)));
+        SCORERS.put("pyramid", () -> (probe, template) -> Fingerprint.matchScore(probe, template,
+                MatcherConfig.DEFAULT.withPyramid(4, 16)));
+        SCORERS.put("rotated", () -> {
+            // templates are enrolled on first use, the lists of a run being the same objects
+            Map<List<int[]>, RotatedTemplate> enrolled = Collections.synchronizedMap(new IdentityHashMap<>());
+            return (probe, template) -> enrolled.computeIfAbsent(template, RotatedTemplate::new).score(probe);
+        });
+        SCORERS.put("packed", () -> (probe, template) -> PackedMinutiae.score(probe,
+                IntBuffer.wrap(PackedMinutiae.pack(template)), 0, template.size()));
+    }
+
+    private static final Pattern NAME = Pattern.compile("(\\d+)_(\\d+)\\.png");
+
+    /**
+     * A fingerprint of the dataset.
+     */
+    private static final class Sample {
+        final int finger;
+        final String name;
+        List<int[]> minutiae;
+
+        Sample(int finger, String name) {
+            this.finger = finger;
+            this.name = name;
+        }
+    }
+
+    /**
+     * The outcome of an evaluation.
+     */
+    public static final class Report {
+        /**
+         * The scores of the genuine pairs.
+         */
+        public final int[] genuine;
+        /**
+         * The scores of the impostor pairs.
+         */
+        public final int[] impostor;
+        /**
+         * The durations of the comparisons.
+         */
+        public final LatencyHistogram.Snapshot latency;
+        /**
+         * The average number of minutiae per template.
+         */
+        public final double averageMinutiae;
+
+        Report(int[] genuine, int[] impostor, LatencyHistogram.Snapshot latency, double averageMinutiae) {
+            this.genuine = genuine;
+            this.impostor = impostor;
+            this.latency = latency;
+            this.averageMinutiae = averageMinutiae;
+        }
+
+        /**
+         * @param threshold the lowest score accepted as a match.
+         * @return the fraction of impostor pairs accepted.
+         */
+        public double falseAcceptRate(int threshold) {
+            return fractionAtLeast(impostor, threshold);
+        }
+
+        /**
+         * @param threshold the lowest score accepted as a match.
+         * @return the fraction of genuine pairs rejected.
+         */
+        public double falseRejectRate(int threshold) {
+            return 1 - fractionAtLeast(genuine, threshold);
+        }
+
+        /**
+         * @return the threshold where the false accept and false reject rates
+         * are the closest.
+         */
+        public int equalErrorThreshold() {
+            int best = 0;
+            for (int threshold = 0; threshold <= maxScore() + 1; threshold++) {
+                if (Math.abs(falseAcceptRate(threshold) - falseRejectRate(threshold))
+                        < Math.abs(falseAcceptRate(best) - falseRejectRate(best))) {
+                    best = threshold;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * @return the equal error rate, the mean of both error rates at
+         * {@link #equalErrorThreshold()}.
+         */
+        public double equalErrorRate() {
+            int threshold = equalErrorThreshold();
+            return (falseAcceptRate(threshold) + falseRejectRate(threshold)) / 2;
+        }
+
+        /**
+         * Writes the detection error tradeoff curve as CSV, one line per
+         * threshold.
+         *
+         * @param path output file path.
+         * @return {@code true} if write operation was successful, {@code false}
+         * otherwise.
+         */
+        public boolean writeDet(String path) {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(path)))) {
+                writer.println("threshold,far,frr");
+                for (int threshold = 0; threshold <= maxScore() + 1; threshold++) {
+                    writer.printf("%d,%.6f,%.6f%n", threshold, falseAcceptRate(threshold), falseRejectRate(threshold));
+                }
+                return true;
+            } catch (IOException e) {
+                System.out.println(e + " Filename: " + path);
+                return false;
+            }
+        }
+
+        private int maxScore() {
+            int max = 0;
+            for (int score : genuine) {
+                max = Math.max(max, score);
+            }
+            for (int score : impostor) {
+                max = Math.max(max, score);
+            }
+            return max;
+        }
+
+        private static double fractionAtLeast(int[] scores, int threshold) {
+            if (scores.length == 0) {
+                return 0;
+            }
+            int count = 0;
+            for (int score : scores) {
+                if (score >= threshold) {
+                    count++;
+                }
+            }
+            return (double) count / scores.length;
+        }
+
+        @Override
+        public String toString() {
+            int threshold = Fingerprint.FOUND_THRESHOLD;
+            return String.format("%d genuine and %d impostor pairs, %.1f minutiae per template%n", genuine.length,
+                    impostor.length, averageMinutiae)
+                    + String.format("at threshold %d: FAR %.4f FRR %.4f%n", threshold,
+                    falseAcceptRate(threshold), falseRejectRate(threshold))
+                    + String.format("EER %.4f at threshold %d%n", equalErrorRate(), equalErrorThreshold())
+                    + String.format("comparison latency: %s%n", latency);
+        }
+    }
+
+    private Evaluation() {
+    }
+
+    /**
+     * Evaluates a matcher on a dataset.
+     *
+     * @param directory   the directory of the dataset.
+     * @param fingers     the number of fingers to use, the lowest numbers first.
+     * @param impressions the number of impressions to use per finger.
+     * @param threads     the number of threads.
+     * @param extractor   turns a binary image into minutiae.
+     * @param scorer      compares two templates.
+     * @return the scores and latencies of every pair.
+     * @throws IOException          if the directory cannot be listed.
+     * @throws InterruptedException if interrupted while waiting for the threads.
+     */
+    public static Report run(Path directory, int fingers, int impressions, int threads,
+                             Function<boolean[][], List<int[]>> extractor, Scorer scorer)
+            throws IOException, InterruptedException {
+        ArrayList<Sample> samples = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.sorted().forEach(path -> {
+                Matcher name = NAME.matcher(path.getFileName().toString());
+                if (name.matches() && Integer.parseInt(name.group(1)) <= fingers
+                        && Integer.parseInt(name.group(2)) <= impressions) {
+                    samples.add(new Sample(Integer.parseInt(name.group(1)), path.toString()));
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<List<int[]>>> extractions = new ArrayList<>();
+            for (Sample sample : samples) {
+                extractions.add(executor.submit(() -> extractor.apply(Helper.readBinary(sample.name))));
+            }
+            List<List<int[]>> templates = await(extractions);
+            for (int i = 0; i < samples.size(); i++) {
+                samples.get(i).minutiae = templates.get(i);
+            }
+
+            LatencyHistogram latency = new LatencyHistogram();
+            ArrayList<Future<int[]>> comparisons = new ArrayList<>();
+            for (int i = 0; i < samples.size(); i++) {
+                for (int j = i + 1; j < samples.size(); j++) {
+                    Sample probe = samples.get(i);
+                    Sample template = samples.get(j);
+                    comparisons.add(executor.submit(() -> {
+                        long start = System.nanoTime();
+                        int score = scorer.score(probe.minutiae, template.minutiae);
+                        latency.record(System.nanoTime() - start);
+                        return new int[]{probe.finger == template.finger ? 1 : 0, score};
+                    }));
+                }
+            }
+            ArrayList<Integer> genuine = new ArrayList<>();
+            ArrayList<Integer> impostor = new ArrayList<>();
+            for (int[] result : await(comparisons)) {
+                (result[0] == 1 ? genuine : impostor).add(result[1]);
+            }
+
+            double averageMinutiae = samples.stream().mapToInt(s -> s.minutiae.size()).average().orElse(0);
+            return new Report(genuine.stream().mapToInt(Integer::intValue).toArray(),
+                    impostor.stream().mapToInt(Integer::intValue).toArray(), latency.snapshot(), averageMinutiae);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> List<T> await(List<Future<T>> futures) throws InterruptedException {
+        ArrayList<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs an evaluation and prints its report.
+     *
+     * @param args the options described in the class documentation.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String directory = "resources/fingerprints";
+        int fingers = Integer.MAX_VALUE;
+        int impressions = Integer.MAX_VALUE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String extractor = "reference";
+        String scorer = "reference";
+        String det = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-fingers":
+                    fingers = Integer.parseInt(args[++i]);
+                    break;
+                case "-impressions":
+                    impressions = Integer.parseInt(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-extractor":
+                    extractor = args[++i];
+                    break;
+                case "-scorer":
+                    scorer = args[++i];
+                    break;
+                case "-det":
+                    det = args[++i];
+                    break;
+                default:
+                    directory = args[i];
+            }
+        }
+        if (!EXTRACTORS.containsKey(extractor) || !SCORERS.containsKey(scorer)) {
+            System.out.println("Extractors: " + EXTRACTORS.keySet() + ", scorers: " + SCORERS.keySet());
+            return;
+        }
+        long start = System.nanoTime();
+        Report report = run(Paths.get(directory), fingers, impressions, threads, EXTRACTORS.get(extractor),
+                SCORERS.get(scorer).get());
+        System.out.print(report);
+        System.out.printf("evaluated in %.1f s%n", (System.nanoTime() - start) / 1e9);
+        if (det != null) {
+            report.writeDet(det);
+        }
+    }
+}
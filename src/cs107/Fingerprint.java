@@ -1,7 +1,10 @@
 package cs107;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 
 
 /**
@@ -37,6 +40,19 @@ public class Fingerprint {
      */
     public static final int MATCH_ANGLE_OFFSET = 2;
 
+    /**
+     * The type of a minutia where a ridge ends, stored as the fourth element of
+     * the minutia. It is the number of transitions around the minutia.
+     */
+    public static final int RIDGE_ENDING = 1;
+
+    /**
+     * The type of a minutia where a ridge splits in two, stored as the fourth
+     * element of the minutia. It is the number of transitions around the
+     * minutia.
+     */
+    public static final int BIFURCATION = 3;
+
     /**
      * Returns an array containing the value of the 8 neighbours of the pixel at
      * coordinates <code>(row, col)</code>.
@@ -80,6 +96,33 @@ public class Fingerprint {
                 getPixel(image, row - 1, col - 1)};
     }
 
+    /**
+     * Returns the neighbours of a pixel as
+     * {@link #getNeighbours(boolean[][], int, int)} does, in the given array
+     * instead of a new one.
+     *
+     * @param image      array containing each pixel's boolean value.
+     * @param row        the row of the pixel of interest.
+     * @param col        the column of the pixel of interest.
+     * @param neighbours the array of 8 elements receiving the neighbours.
+     * @return <code>neighbours</code>, or <code>null</code> if the pixel is
+     * out of the image.
+     */
+    public static boolean[] getNeighbours(boolean[][] image, int row, int col, boolean[] neighbours) {
+        if (row > (image.length - 1) || row < 0 || col > (image[0].length - 1) || col < 0) {
+            return null;
+        }
+        neighbours[0] = getPixel(image, row - 1, col);
+        neighbours[1] = getPixel(image, row - 1, col + 1);
+        neighbours[2] = getPixel(image, row, col + 1);
+        neighbours[3] = getPixel(image, row + 1, col + 1);
+        neighbours[4] = getPixel(image, row + 1, col);
+        neighbours[5] = getPixel(image, row + 1, col - 1);
+        neighbours[6] = getPixel(image, row, col - 1);
+        neighbours[7] = getPixel(image, row - 1, col - 1);
+        return neighbours;
+    }
+
     /**
      * used by getNeighbours
      *
@@ -186,8 +229,19 @@ public class Fingerprint {
      * @return return true if pixel is not necessary, false if it's necessary
      */
     static boolean checksSteps(boolean[][] image, int row, int col, int step) {
+        return checksSteps(image, row, col, step, new boolean[8]);
+    }
+
+    /**
+     * Same as {@link #checksSteps(boolean[][], int, int, int)}, reading the
+     * neighbours into the given array.
+     */
+    static boolean checksSteps(boolean[][] image, int row, int col, int step, boolean[] neighbours) {
         boolean pixel = image[row][col];
-        boolean[] neighPixel = getNeighbours(image, row, col);
+        if (!pixel) {
+            return false;
+        }
+        boolean[] neighPixel = getNeighbours(image, row, col, neighbours);
         int bNeighPixel = blackNeighbours(neighPixel);
 
         //checks
@@ -236,13 +290,94 @@ public class Fingerprint {
      */
 
     public static boolean[][] thin(boolean[][] image) {
-        boolean[][] newImage = copyImage(image);
-        boolean[][] oldImage;
+        return thin(image, Workspace.current());
+    }
+
+    /**
+     * Compute the skeleton of a boolean image, with the intermediate images in
+     * the buffers of the given workspace. Only the skeleton is allocated.
+     *
+     * @param image     array containing each pixel's boolean value.
+     * @param workspace the buffers to use.
+     * @return array containing the boolean value of each pixel of the image after
+     * applying the thinning algorithm.
+     */
+    public static boolean[][] thin(boolean[][] image, Workspace workspace) {
+        FingerprintEvents.Thin event = new FingerprintEvents.Thin();
+        event.begin();
+        long start = PipelineMetrics.start();
+        int iterations = 0;
+        int height = image.length;
+        int width = height == 0 ? 0 : image[0].length;
+        boolean[][] current = workspace.image(0, height, width);
+        boolean[][] stepped = workspace.image(1, height, width);
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(image[row], 0, current[row], 0, width);
+        }
+        boolean changed;
         do {
-            oldImage = newImage;
-            newImage = thinningStep(thinningStep(oldImage, 0), 1);
-        } while (!(identical(newImage, oldImage)));
-        return newImage;
+            // a step only removes pixels, so nothing removed means nothing changed
+            changed = thinningStep(current, stepped, height, width, 0, workspace.neighbours());
+            changed |= thinningStep(stepped, current, height, width, 1, workspace.neighbours());
+            iterations++;
+        } while (changed);
+        boolean[][] skeleton = new boolean[height][width];
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(current[row], 0, skeleton[row], 0, width);
+        }
+        PipelineMetrics.recordThin(start, iterations);
+        FingerprintEvents.commit(event, image, iterations);
+        return skeleton;
+    }
+
+    /**
+     * Applies a step of the thinning to the given part of an image, as
+     * {@link #thinningStep(boolean[][], int)} does, writing the result into
+     * another image.
+     *
+     * @return <code>true</code> if a pixel was removed.
+     */
+    private static boolean thinningStep(boolean[][] image, boolean[][] result, int height, int width, int step,
+                                        boolean[] neighbours) {
+        boolean removed = false;
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(image[row], 0, result[row], 0, width);
+            for (int col = 0; col < width; col++) {
+                if (checksSteps(image, row, col, step, neighbours)) {
+                    result[row][col] = false;
+                    removed = true;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Compute the skeleton of the print only, without scanning the background
+     * around it.
+     *
+     * @param image array containing each pixel's boolean value.
+     * @param mask  the segmentation of the image.
+     * @return array containing the skeleton of the pixels inside the bounding
+     * box of the print, every pixel outside of it being white.
+     * @see Segmentation#segment(boolean[][])
+     */
+    public static boolean[][] thin(boolean[][] image, Segmentation mask) {
+        int height = mask.bottom() - mask.top();
+        int width = mask.right() - mask.left();
+        boolean[][] result = new boolean[image.length][image[0].length];
+        if (height <= 0 || width <= 0) {
+            return result;
+        }
+        boolean[][] print = new boolean[height][width];
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(image[mask.top() + row], mask.left(), print[row], 0, width);
+        }
+        boolean[][] skeleton = thin(print);
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(skeleton[row], 0, result[mask.top() + row], mask.left(), width);
+        }
+        return result;
     }
 
     /**
@@ -355,6 +490,14 @@ public class Fingerprint {
                 }
             }
         }
+        return slope(sumXY, sumSqrX, sumSqrY);
+    }
+
+    /**
+     * Computes the slope of the linear regression from its sums, as done by
+     * {@link #computeSlope(boolean[][], int, int)}.
+     */
+    static double slope(double sumXY, double sumSqrX, double sumSqrY) {
         if (sumSqrX == 0) {
             return Double.POSITIVE_INFINITY;
         } else if (sumSqrX >= sumSqrY) {
@@ -392,7 +535,6 @@ public class Fingerprint {
     public static double computeAngle(boolean[][] connectedPixels, int row, int col, double slope) {
         int upSideCount = 0;
         int downSideCount = 0;
-        double angle = Math.atan(slope);
 
         for (int y = 0; y < connectedPixels.length; y++) {
             for (int x = 0; x < connectedPixels[0].length; x++) {
@@ -405,7 +547,16 @@ public class Fingerprint {
                 }
             }
         }
+        return angle(slope, upSideCount, downSideCount);
+    }
 
+    /**
+     * Computes the orientation in radians from the slope and the number of
+     * pixels on each side of its perpendicular, as done by
+     * {@link #computeAngle(boolean[][], int, int, double)}.
+     */
+    static double angle(double slope, int upSideCount, int downSideCount) {
+        double angle = Math.atan(slope);
         if (angle == Double.POSITIVE_INFINITY) {
             if (upSideCount > downSideCount) {
                 return Math.PI / 2;
@@ -437,12 +588,53 @@ public class Fingerprint {
         boolean[][] connectedPixelResult = connectedPixels(image, row, col, distance);
         double slope = computeSlope(connectedPixelResult, row, col);
         double angle = computeAngle(connectedPixelResult, row, col, slope);
+        return degrees(angle);
+    }
+
+    /**
+     * Computes the orientation of the minutia at the coordinate <code>(row,
+     * col)</code> from the labelled components of the image, with the same
+     * result as {@link #computeOrientation(boolean[][], int, int, int)}.
+     *
+     * @param labels   the components of the image.
+     * @param row      the first coordinate of the pixel of interest.
+     * @param col      the second coordinate of the pixel of interest.
+     * @param distance the distance to be considered in each direction to compute
+     *                 the orientation.
+     * @return The orientation in degrees.
+     */
+    public static int computeOrientation(SkeletonLabels labels, int row, int col, int distance) {
+        boolean[][] connectedPixelResult = labels.connectedPixels(row, col, distance);
+        double slope = computeSlope(connectedPixelResult, row, col);
+        double angle = computeAngle(connectedPixelResult, row, col, slope);
+        return degrees(angle);
+    }
+
+    /**
+     * Same as {@link #computeOrientation(SkeletonLabels, int, int, int)}, with
+     * the connected pixels in the given white image, which is white again
+     * afterwards.
+     */
+    static int computeOrientation(SkeletonLabels labels, int row, int col, int distance, boolean[][] connected) {
+        labels.connectedPixels(row, col, distance, connected);
+        double slope = computeSlope(connected, row, col);
+        double angle = computeAngle(connected, row, col, slope);
+        for (int y = Math.max(row - distance, 0); y <= Math.min(row + distance, connected.length - 1); y++) {
+            Arrays.fill(connected[y], Math.max(col - distance, 0), Math.min(col + distance + 1, connected[y].length),
+                    false);
+        }
+        return degrees(angle);
+    }
+
+    /**
+     * Converts an orientation in radians to whole degrees between 0 and 360.
+     */
+    static int degrees(double angle) {
         double degreeAngle = Math.toDegrees(angle);
         if (degreeAngle < 0) {
             degreeAngle += 360;
         }
         return (int) Math.round(degreeAngle);
-
     }
 
     /**
@@ -450,25 +642,78 @@ public class Fingerprint {
      *
      * @param image array containing each pixel's boolean value.
      * @return The list of all minutiae. A minutia is represented by an array where
-     * the first element is the row, the second is column, and the third is
-     * the angle in degrees.
+     * the first element is the row, the second is column, the third is
+     * the angle in degrees and the fourth is the type, {@link #RIDGE_ENDING}
+     * or {@link #BIFURCATION}.
      * @see #thin(boolean[][])
      */
     public static List<int[]> extract(boolean[][] image) {
+        return extract(image, null);
+    }
+
+    /**
+     * Extracts the minutiae of the print from a thinned image, without scanning
+     * the background and dropping the minutiae too close to it.
+     *
+     * @param image array containing each pixel's boolean value.
+     * @param mask  the segmentation of the image, or <code>null</code> to
+     *              consider the whole image.
+     * @return The list of the minutiae inside the print, represented as by
+     * {@link #extract(boolean[][])}.
+     * @see Segmentation#isInterior(int, int)
+     */
+    public static List<int[]> extract(boolean[][] image, Segmentation mask) {
+        return extract(image, mask, Workspace.current());
+    }
+
+    /**
+     * Extracts the minutiae of the print from a thinned image, as
+     * {@link #extract(boolean[][], Segmentation)} does, with the neighbours
+     * and the connected pixels in the buffers of the given workspace.
+     *
+     * @param image     array containing each pixel's boolean value.
+     * @param mask      the segmentation of the image, or <code>null</code> to
+     *                  consider the whole image.
+     * @param workspace the buffers to use.
+     * @return The list of the minutiae inside the print, represented as by
+     * {@link #extract(boolean[][])}.
+     */
+    public static List<int[]> extract(boolean[][] image, Segmentation mask, Workspace workspace) {
+        FingerprintEvents.Extract event = new FingerprintEvents.Extract();
+        event.begin();
+        long start = PipelineMetrics.start();
+        int candidates = 0;
         ArrayList<int[]> minuties = new ArrayList<>();
 
+        int top = mask == null ? 1 : Math.max(1, mask.top());
+        int left = mask == null ? 1 : Math.max(1, mask.left());
+        int bottom = mask == null ? image.length - 1 : Math.min(image.length - 1, mask.bottom());
+        int right = mask == null ? image[0].length - 1 : Math.min(image[0].length - 1, mask.right());
         int transitionsNumber;
-        for (int y = 1; y < image.length - 1; y++) {
-            for (int x = 1; x < image[0].length - 1; x++) {
-                transitionsNumber = transitions(getNeighbours(image, y, x));
+        // labelled on the first minutia, then shared by all of them
+        SkeletonLabels labels = null;
+        boolean[][] connected = null;
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
                 if (image[y][x]) {
-                    if (transitionsNumber == 1 || transitionsNumber == 3) {
-                        int z = computeOrientation(image, y, x, ORIENTATION_DISTANCE);
-                        minuties.add(new int[]{y, x, z});
+                    candidates++;
+                    if (mask != null && !mask.isInterior(y, x)) {
+                        continue;
+                    }
+                    transitionsNumber = transitions(getNeighbours(image, y, x, workspace.neighbours()));
+                    if (transitionsNumber == RIDGE_ENDING || transitionsNumber == BIFURCATION) {
+                        if (labels == null) {
+                            labels = SkeletonLabels.of(image, workspace);
+                            connected = workspace.whiteImage(0, image.length, image[0].length);
+                        }
+                        int z = computeOrientation(labels, y, x, ORIENTATION_DISTANCE, connected);
+                        minuties.add(new int[]{y, x, z, transitionsNumber});
                     }
                 }
             }
         }
+        PipelineMetrics.recordExtract(start, candidates, minuties.size());
+        FingerprintEvents.commit(event, image, candidates, minuties.size());
         return minuties;
     }
 
@@ -479,7 +724,8 @@ public class Fingerprint {
      * @param centerRow the row of the center of rotation.
      * @param centerCol the col of the center of rotation.
      * @param rotation  the rotation in degrees.
-     * @return the minutia rotated around the given center.
+     * @return the minutia rotated around the given center. Elements after the
+     * angle, like the type, are kept.
      */
     public static int[] applyRotation(int[] minutia, int centerRow, int centerCol, int rotation) {
         double angleRad = Math.toRadians(rotation);
@@ -492,8 +738,38 @@ public class Fingerprint {
         int newRow = (int) Math.round((centerRow - newY));
         int newCol = (int) Math.round((newX + centerCol));
         int newOrientation = Math.round((minutia[2] + rotation) % 360);
-        return new int[]{newRow, newCol, newOrientation};
+        int[] rotated = minutia.clone();
+        rotated[0] = newRow;
+        rotated[1] = newCol;
+        rotated[2] = newOrientation;
+        return rotated;
+
+    }
 
+    /**
+     * Applies the specified rotation to the minutia, as
+     * {@link #applyRotation(int[], int, int, int)} does, writing the result
+     * into the given array instead of a new one.
+     *
+     * @param minutia   the original minutia.
+     * @param centerRow the row of the center of rotation.
+     * @param centerCol the col of the center of rotation.
+     * @param rotation  the rotation in degrees.
+     * @param rotated   the array receiving the rotated minutia, as long as
+     *                  <code>minutia</code>.
+     * @return <code>rotated</code>.
+     */
+    public static int[] applyRotation(int[] minutia, int centerRow, int centerCol, int rotation, int[] rotated) {
+        double angleRad = Math.toRadians(rotation);
+        int x = minutia[1] - centerCol;
+        int y = (centerRow - minutia[0]);
+        double cos = Math.cos(angleRad);
+        double sin = Math.sin(angleRad);
+        System.arraycopy(minutia, 3, rotated, 3, minutia.length - 3);
+        rotated[0] = (int) Math.round(centerRow - ((x * sin) + (y * cos)));
+        rotated[1] = (int) Math.round(((x * cos) - (y * sin)) + centerCol);
+        rotated[2] = Math.round((minutia[2] + rotation) % 360);
+        return rotated;
     }
 
     /**
@@ -502,13 +778,14 @@ public class Fingerprint {
      * @param minutia        the original minutia.
      * @param rowTranslation the translation along the rows.
      * @param colTranslation the translation along the columns.
-     * @return the translated minutia.
+     * @return the translated minutia. Elements after the angle, like the type,
+     * are kept.
      */
     public static int[] applyTranslation(int[] minutia, int rowTranslation, int colTranslation) {
-        int newRow = minutia[0] - rowTranslation;
-        int newCol = minutia[1] - colTranslation;
-        int newOrientation = minutia[2];
-        return new int[]{newRow, newCol, newOrientation};
+        int[] translated = minutia.clone();
+        translated[0] = minutia[0] - rowTranslation;
+        translated[1] = minutia[1] - colTranslation;
+        return translated;
     }
 
     /**
@@ -550,7 +827,52 @@ public class Fingerprint {
     }
 
     /**
-     * Counts the number of overlapping minutiae.
+     * Transforms each minutia of the list as
+     * {@link #applyTransformation(List, int, int, int, int, int)} does, into
+     * the minutia buffers of the given workspace.
+     *
+     * @param minutiae       the list of minutiae.
+     * @param centerRow      the row around which the point is rotated.
+     * @param centerCol      the column around which the point is rotated.
+     * @param rowTranslation the vertical translation.
+     * @param colTranslation the horizontal translation.
+     * @param rotation       the rotation.
+     * @param workspace      the buffers to use.
+     * @return the list of transformed minutiae, valid until the workspace is
+     * used again. It can be passed back as <code>minutiae</code>, and is then
+     * transformed in place.
+     */
+    public static List<int[]> applyTransformation(List<int[]> minutiae, int centerRow, int centerCol, int rowTranslation,
+                                                  int colTranslation, int rotation, Workspace workspace) {
+        List<int[]> transformedMinutiae = workspace.minutiae(minutiae);
+        for (int i = 0; i < minutiae.size(); i++) {
+            int[] minutia = minutiae.get(i);
+            int[] transformed = transformedMinutiae.get(i);
+            applyRotation(minutia, centerRow, centerCol, rotation, transformed);
+            transformed[0] -= rowTranslation;
+            transformed[1] -= colTranslation;
+        }
+        return transformedMinutiae;
+    }
+
+    /**
+     * Returns <code>true</code> if two minutiae can correspond to each other:
+     * they have the same type, or the type of one of them is unknown, as in
+     * templates made before the type was recorded.
+     *
+     * @param minutia1 the first minutia.
+     * @param minutia2 the second minutia.
+     * @return <code>false</code> if one is a ridge ending and the other a
+     * bifurcation.
+     */
+    public static boolean sameType(int[] minutia1, int[] minutia2) {
+        return minutia1.length < 4 || minutia2.length < 4 || minutia1[3] == 0 || minutia2[3] == 0
+                || minutia1[3] == minutia2[3];
+    }
+
+    /**
+     * Counts the number of overlapping minutiae. Only minutiae of the same type
+     * overlap.
      *
      * @param minutiae1      the first set of minutiae.
      * @param minutiae2      the second set of minutiae.
@@ -570,7 +892,7 @@ public class Fingerprint {
                 double euclideanDist = Math.sqrt((Math.pow(rowDiff, 2) + Math.pow(colDiff, 2)));
                 boolean distCheck = euclideanDist <= maxDistance;
                 boolean orientationCheck = orientationDiff <= maxOrientation;
-                if (distCheck && orientationCheck) {
+                if (distCheck && orientationCheck && sameType(m1, m2)) {
                     matchingCount++;
                 }
             }
@@ -579,7 +901,8 @@ public class Fingerprint {
     }
 
     /**
-     * Compares the minutiae from two fingerprints.
+     * Compares the minutiae from two fingerprints. Only pairs of minutiae of the
+     * same type are used to align the fingerprints.
      *
      * @param minutiae1 the list of minutiae of the first fingerprint.
      * @param minutiae2 the list of minutiae of the second fingerprint.
@@ -587,24 +910,229 @@ public class Fingerprint {
      * otherwise.
      */
     public static boolean match(List<int[]> minutiae1, List<int[]> minutiae2) {
+        return match(minutiae1, minutiae2, MatcherConfig.DEFAULT);
+    }
+
+    /**
+     * Compares the minutiae from two fingerprints with the given parameters.
+     *
+     * @param minutiae1 the list of minutiae of the first fingerprint.
+     * @param minutiae2 the list of minutiae of the second fingerprint.
+     * @param config    the thresholds and the rotation search to use.
+     * @return Returns <code>true</code> if they match and <code>false</code>
+     * otherwise.
+     */
+    public static boolean match(List<int[]> minutiae1, List<int[]> minutiae2, MatcherConfig config) {
+        return match(minutiae1, minutiae2, config, () -> false);
+    }
+
+    /**
+     * Compares the minutiae from two fingerprints with the given parameters,
+     * giving up when the comparison is no longer needed.
+     *
+     * @param minutiae1 the list of minutiae of the first fingerprint.
+     * @param minutiae2 the list of minutiae of the second fingerprint.
+     * @param config    the thresholds and the rotation search to use.
+     * @param cancelled checked before each minutia of the first fingerprint
+     *                  is used as an anchor.
+     * @return Returns <code>true</code> if they match and <code>false</code>
+     * otherwise.
+     * @throws CancellationException if <code>cancelled</code> returned
+     *                               <code>true</code>.
+     */
+    static boolean match(List<int[]> minutiae1, List<int[]> minutiae2, MatcherConfig config,
+                         BooleanSupplier cancelled) {
+        FingerprintEvents.Match event = new FingerprintEvents.Match();
+        event.begin();
+        long start = PipelineMetrics.start();
+        int[] alignments = {0};
+        if (config.pyramidCandidates > 0) {
+            if (cancelled.getAsBoolean()) {
+                throw new CancellationException("Comparison cancelled");
+            }
+            boolean matched = PyramidMatcher.score(minutiae1, minutiae2, config, config.foundThreshold, alignments)
+                    >= config.foundThreshold;
+            PipelineMetrics.recordMatch(start, alignments[0], matched);
+            FingerprintEvents.commit(event, minutiae1.size(), minutiae2.size(), alignments[0], matched);
+            return matched;
+        }
         for (int m1 = 0; m1 < minutiae1.size(); m1++) {
+            if (cancelled.getAsBoolean()) {
+                throw new CancellationException("Comparison cancelled");
+            }
             for (int m2 = 0; m2 < minutiae2.size(); m2++) {
+                if (!sameType(minutiae1.get(m1), minutiae2.get(m2))) {
+                    continue;
+                }
                 int rowTranslation = minutiae2.get(m2)[0] - minutiae1.get(m1)[0];
                 int colTranslation = minutiae2.get(m2)[1] - minutiae1.get(m1)[1];
                 int centerRow = minutiae1.get(m1)[0];
                 int centerCol = minutiae1.get(m1)[1];
                 int rotation = minutiae2.get(m2)[2] - minutiae1.get(m1)[2];
-                for (int r = rotation - MATCH_ANGLE_OFFSET; r <= rotation + MATCH_ANGLE_OFFSET; r++) {
-                    List<int[]> transformedMinutiae = applyTransformation(minutiae2, centerRow, centerCol, rowTranslation, colTranslation, r);
-                    int matchCount = matchingMinutiaeCount(minutiae1, transformedMinutiae, DISTANCE_THRESHOLD, ORIENTATION_THRESHOLD);
-                    if (matchCount >= FOUND_THRESHOLD) {
-
-                        return true;
-                    }
+                int matchCount = searchRotation(minutiae1, minutiae2, centerRow, centerCol, rowTranslation,
+                        colTranslation, rotation, config, config.foundThreshold, alignments);
+                if (matchCount >= config.foundThreshold) {
+                    PipelineMetrics.recordMatch(start, alignments[0], true);
+                    FingerprintEvents.commit(event, minutiae1.size(), minutiae2.size(), alignments[0], true);
+                    return true;
                 }
             }
 
         }
+        PipelineMetrics.recordMatch(start, alignments[0], false);
+        FingerprintEvents.commit(event, minutiae1.size(), minutiae2.size(), alignments[0], false);
         return false;
     }
+
+    /**
+     * Computes how well the minutiae from two fingerprints overlap, trying the
+     * same alignments as {@link #match(List, List)}.
+     *
+     * @param minutiae1 the list of minutiae of the first fingerprint.
+     * @param minutiae2 the list of minutiae of the second fingerprint.
+     * @return the highest number of matching minutiae over all the alignments.
+     * The fingerprints match when it is at least {@link #FOUND_THRESHOLD}.
+     */
+    public static int matchScore(List<int[]> minutiae1, List<int[]> minutiae2) {
+        return matchScore(minutiae1, minutiae2, MatcherConfig.DEFAULT);
+    }
+
+    /**
+     * Computes how well the minutiae from two fingerprints overlap, trying the
+     * same alignments as {@link #match(List, List, MatcherConfig)}.
+     *
+     * @param minutiae1 the list of minutiae of the first fingerprint.
+     * @param minutiae2 the list of minutiae of the second fingerprint.
+     * @param config    the thresholds and the rotation search to use.
+     * @return the highest number of matching minutiae over all the alignments.
+     */
+    public static int matchScore(List<int[]> minutiae1, List<int[]> minutiae2, MatcherConfig config) {
+        int bestCount = 0;
+        int[] alignments = {0};
+        if (config.pyramidCandidates > 0) {
+            return PyramidMatcher.score(minutiae1, minutiae2, config, Integer.MAX_VALUE, alignments);
+        }
+        for (int[] anchor1 : minutiae1) {
+            for (int[] anchor2 : minutiae2) {
+                if (!sameType(anchor1, anchor2)) {
+                    continue;
+                }
+                int rowTranslation = anchor2[0] - anchor1[0];
+                int colTranslation = anchor2[1] - anchor1[1];
+                int rotation = anchor2[2] - anchor1[2];
+                bestCount = Math.max(bestCount, searchRotation(minutiae1, minutiae2, anchor1[0], anchor1[1],
+                        rowTranslation, colTranslation, rotation, config, Integer.MAX_VALUE, alignments));
+            }
+        }
+        return bestCount;
+    }
+
+    /**
+     * Finds the alignment making the most minutiae of two fingerprints
+     * overlap, among the alignments tried by
+     * {@link #matchScore(List, List, MatcherConfig)} with every rotation of
+     * the range: on every anchor pair, or on the best coarse anchor pairs of
+     * {@link PyramidMatcher} when {@link MatcherConfig#pyramidCandidates} is
+     * positive.
+     *
+     * @param minutiae1 the list of minutiae of the first fingerprint.
+     * @param minutiae2 the list of minutiae of the second fingerprint.
+     * @param config    the thresholds and the angle offset to use.
+     * @return the center row, center column, row translation, column
+     * translation and rotation to give to
+     * {@link #applyTransformation(List, int, int, int, int, int)} to bring the
+     * second fingerprint onto the first one, followed by the number of
+     * overlapping minutiae, or <code>null</code> if no minutia can be paired.
+     */
+    public static int[] bestAlignment(List<int[]> minutiae1, List<int[]> minutiae2, MatcherConfig config) {
+        int[] best = null;
+        if (config.pyramidCandidates > 0) {
+            for (int pair : PyramidMatcher.candidates(minutiae1, minutiae2, config)) {
+                best = bestRotation(minutiae1, minutiae2, minutiae1.get(pair / minutiae2.size()),
+                        minutiae2.get(pair % minutiae2.size()), config, best);
+            }
+            return best;
+        }
+        for (int[] anchor1 : minutiae1) {
+            for (int[] anchor2 : minutiae2) {
+                if (sameType(anchor1, anchor2)) {
+                    best = bestRotation(minutiae1, minutiae2, anchor1, anchor2, config, best);
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Tries every rotation of the range on an anchor pair.
+     *
+     * @return the better of the given alignment and the best one of the anchor
+     * pair, as described by
+     * {@link #bestAlignment(List, List, MatcherConfig)}.
+     */
+    private static int[] bestRotation(List<int[]> minutiae1, List<int[]> minutiae2, int[] anchor1, int[] anchor2,
+                                      MatcherConfig config, int[] best) {
+        Workspace workspace = Workspace.current();
+        int rowTranslation = anchor2[0] - anchor1[0];
+        int colTranslation = anchor2[1] - anchor1[1];
+        int rotation = anchor2[2] - anchor1[2];
+        for (int r = rotation - config.angleOffset; r <= rotation + config.angleOffset; r++) {
+            List<int[]> transformedMinutiae = applyTransformation(minutiae2, anchor1[0], anchor1[1],
+                    rowTranslation, colTranslation, r, workspace);
+            int matchCount = matchingMinutiaeCount(minutiae1, transformedMinutiae, config.distanceThreshold,
+                    config.orientationThreshold);
+            if (best == null || matchCount > best[5]) {
+                best = new int[]{anchor1[0], anchor1[1], rowTranslation, colTranslation, r, matchCount};
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Searches the rotations within {@link MatcherConfig#angleOffset} of the
+     * given one for the alignment making the most minutiae overlap, coarse to
+     * fine as described in {@link MatcherConfig}.
+     *
+     * @param alignments incremented by the number of alignments tried.
+     * @return the highest number of overlapping minutiae found, or the first
+     * one greater or equal to <code>stopAt</code>.
+     */
+    static int searchRotation(List<int[]> minutiae1, List<int[]> minutiae2, int centerRow, int centerCol,
+                                      int rowTranslation, int colTranslation, int rotation, MatcherConfig config,
+                                      int stopAt, int[] alignments) {
+        Workspace workspace = Workspace.current();
+        int from = rotation - config.angleOffset;
+        int to = rotation + config.angleOffset;
+        int bestCount = 0;
+        int bestRotation = rotation;
+        for (int r = from; r <= to; r += config.coarseStep) {
+            List<int[]> transformedMinutiae = applyTransformation(minutiae2, centerRow, centerCol, rowTranslation, colTranslation, r, workspace);
+            int matchCount = matchingMinutiaeCount(minutiae1, transformedMinutiae, config.distanceThreshold, config.orientationThreshold);
+            alignments[0]++;
+            if (matchCount >= stopAt) {
+                return matchCount;
+            }
+            if (matchCount > bestCount) {
+                bestCount = matchCount;
+                bestRotation = r;
+            }
+        }
+        if (config.coarseStep == 1 || bestCount < config.refineThreshold) {
+            return bestCount;
+        }
+        // the rotations between the coarse ones next to the best one
+        for (int r = Math.max(from, bestRotation - config.coarseStep + 1); r <= Math.min(to, bestRotation + config.coarseStep - 1); r++) {
+            if ((r - from) % config.coarseStep == 0) {
+                continue;
+            }
+            List<int[]> transformedMinutiae = applyTransformation(minutiae2, centerRow, centerCol, rowTranslation, colTranslation, r, workspace);
+            int matchCount = matchingMinutiaeCount(minutiae1, transformedMinutiae, config.distanceThreshold, config.orientationThreshold);
+            alignments[0]++;
+            if (matchCount >= stopAt) {
+                return matchCount;
+            }
+            bestCount = Math.max(bestCount, matchCount);
+        }
+        return bestCount;
+    }
 }
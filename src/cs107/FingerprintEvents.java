@@ -0,0 +1,131 @@
+package cs107;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the fingerprint pipeline.
+ * <p>
+ * Each event spans one call of {@link Helper#readBinary(String)},
+ * {@link Fingerprint#thin(boolean[][])}, {@link Fingerprint#extract(boolean[][])}
+ * or {@link Fingerprint#match(java.util.List, java.util.List)}, and carries what
+ * drives the cost of the call. The events are disabled unless a recording
+ * enables them, for instance with
+ * <code>-XX:StartFlightRecording:settings=profile</code>, in which case
+ * creating and beginning an event is all the work done.
+ */
+public final class FingerprintEvents {
+
+    private FingerprintEvents() {
+    }
+
+    @Name("cs107.Decode")
+    @Label("Image Decode")
+    @Category("Fingerprint")
+    @Description("Reading and binarizing an image")
+    public static final class Decode extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Height")
+        int height;
+
+        @Label("Width")
+        int width;
+    }
+
+    @Name("cs107.Thin")
+    @Label("Thinning")
+    @Category("Fingerprint")
+    @Description("Computing the skeleton of a binary image")
+    public static final class Thin extends Event {
+        @Label("Height")
+        int height;
+
+        @Label("Width")
+        int width;
+
+        @Label("Iterations")
+        @Description("Number of passes of both thinning steps")
+        int iterations;
+    }
+
+    @Name("cs107.Extract")
+    @Label("Minutiae Extraction")
+    @Category("Fingerprint")
+    @Description("Finding the minutiae of a skeleton and their orientation")
+    public static final class Extract extends Event {
+        @Label("Height")
+        int height;
+
+        @Label("Width")
+        int width;
+
+        @Label("Candidates")
+        @Description("Number of skeleton pixels examined")
+        int candidates;
+
+        @Label("Minutiae")
+        int minutiae;
+    }
+
+    @Name("cs107.Match")
+    @Label("Match")
+    @Category("Fingerprint")
+    @Description("Comparing the minutiae of two fingerprints")
+    public static final class Match extends Event {
+        @Label("First Minutiae")
+        int minutiae1;
+
+        @Label("Second Minutiae")
+        int minutiae2;
+
+        @Label("Alignments")
+        @Description("Number of transformations tried")
+        int alignments;
+
+        @Label("Matched")
+        boolean matched;
+    }
+
+    static void commit(Decode event, String source, boolean[][] image) {
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.height = image == null ? 0 : image.length;
+            event.width = image == null || image.length == 0 ? 0 : image[0].length;
+            event.commit();
+        }
+    }
+
+    static void commit(Thin event, boolean[][] image, int iterations) {
+        if (event.shouldCommit()) {
+            event.height = image.length;
+            event.width = image.length == 0 ? 0 : image[0].length;
+            event.iterations = iterations;
+            event.commit();
+        }
+    }
+
+    static void commit(Extract event, boolean[][] image, int candidates, int minutiae) {
+        if (event.shouldCommit()) {
+            event.height = image.length;
+            event.width = image.length == 0 ? 0 : image[0].length;
+            event.candidates = candidates;
+            event.minutiae = minutiae;
+            event.commit();
+        }
+    }
+
+    static void commit(Match event, int minutiae1, int minutiae2, int alignments, boolean matched) {
+        if (event.shouldCommit()) {
+            event.minutiae1 = minutiae1;
+            event.minutiae2 = minutiae2;
+            event.alignments = alignments;
+            event.matched = matched;
+            event.commit();
+        }
+    }
+}
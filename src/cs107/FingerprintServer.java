@@ -0,0 +1,309 @@
+package cs107;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * A local HTTP service to enroll, verify and identify fingerprints.
+ * <p>
+ * Every endpoint takes a PNG image as the body of a <code>POST</code> request:
+ * <ul>
+ * <li><code>/enroll?id=NAME</code> extracts the minutiae of the image and
+ * stores them under the given identifier,</li>
+ * <li><code>/verify?id=NAME</code> compares the image with the template of
+ * the given identifier and answers <code>true</code> or
+ * <code>false</code>,</li>
+ * <li><code>/identify</code> compares the image with every template and
+ * answers the matching identifiers, one per line.</li>
+ * </ul>
+ * At most a given number of requests are processed at the same time, the
+ * others are refused with <code>503</code>, and a request taking longer than
+ * the timeout is answered with <code>504</code> and interrupted. It counts
+ * against the limit until it has actually stopped. Handlers run on virtual
+ * threads when the JVM provides them (Java 21 and later) and on a cached pool
+ * of platform threads otherwise.
+ */
+public final class FingerprintServer {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final long timeoutMillis;
+    private final Map<String, List<int[]>> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a server listening on the loopback interface. The server is not
+     * started.
+     *
+     * @param port          the port to listen on, <code>0</code> for any free port.
+     * @param maxConcurrent the maximum number of requests processed at the same
+     *                      time.
+     * @param timeoutMillis the maximum processing time of a request, in
+     *                      milliseconds.
+     * @throws IOException if the port cannot be bound.
+     */
+    public FingerprintServer(int port, int maxConcurrent, long timeoutMillis) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.executor = newHandlerExecutor();
+        this.permits = new Semaphore(maxConcurrent);
+        this.timeoutMillis = timeoutMillis;
+        server.setExecutor(executor);
+        server.createContext("/enroll", exchange -> handle(exchange, this::enroll));
+        server.createContext("/verify", exchange -> handle(exchange, this::verify));
+        server.createContext("/identify", exchange -> handle(exchange, this::identify));
+    }
+
+    /**
+     * Returns a virtual thread per task executor when available, found by
+     * reflection so that the project still compiles for Java 11.
+     */
+    static ExecutorService newHandlerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits at most one second for the requests in
+     * progress.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the port the server listens on.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the templates enrolled so far, by identifier.
+     */
+    public Map<String, List<int[]>> templates() {
+        return templates;
+    }
+
+    /**
+     * A response, made of a status code and a text body.
+     */
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * A request, read in full before it is processed so that an abandoned
+     * processing never touches the closed exchange.
+     */
+    private static final class Request {
+        final String query;
+        final byte[] body;
+
+        Request(String query, byte[] body) {
+            this.query = query;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Processes a request on the executor. The permit is released when the
+     * processing ends, not when the client gets its answer: a request that
+     * timed out is interrupted, and still counts against the limit until it
+     * has actually stopped.
+     */
+    private void handle(HttpExchange exchange, Function<Request, Response> action) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, new Response(405, "only POST is supported"));
+            } else if (!permits.tryAcquire()) {
+                send(exchange, new Response(503, "too many concurrent requests"));
+            } else {
+                // whoever sets it releases the permit: the task if it starts,
+                // the handler if the task is cancelled before it starts
+                AtomicBoolean claimed = new AtomicBoolean();
+                Future<Response> future;
+                try (InputStream body = exchange.getRequestBody()) {
+                    Request request = new Request(exchange.getRequestURI().getRawQuery(), body.readAllBytes());
+                    future = executor.submit(() -> {
+                        if (!claimed.compareAndSet(false, true)) {
+                            return null;
+                        }
+                        try {
+                            // a handler thread is not reused, the buffers are
+                            return Workspace.withPooled(() -> action.apply(request));
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch (IOException | RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+                try {
+                    send(exchange, future.get(timeoutMillis, TimeUnit.MILLISECONDS));
+                } catch (TimeoutException e) {
+                    cancel(future, claimed);
+                    send(exchange, new Response(504, "timed out after " + timeoutMillis + " ms"));
+                } catch (ExecutionException e) {
+                    send(exchange, new Response(500, String.valueOf(e.getCause())));
+                } catch (InterruptedException e) {
+                    cancel(future, claimed);
+                    Thread.currentThread().interrupt();
+                    send(exchange, new Response(503, "interrupted"));
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Interrupts a task, and releases its permit if it has not started.
+     */
+    private void cancel(Future<Response> future, AtomicBoolean claimed) {
+        future.cancel(true);
+        if (claimed.compareAndSet(false, true)) {
+            permits.release();
+        }
+    }
+
+    private Response enroll(Request request) {
+        String id = parameter(request, "id");
+        if (id == null) {
+            return new Response(400, "missing id");
+        }
+        List<int[]> minutiae = minutiae(request);
+        if (minutiae == null) {
+            return new Response(400, "not an image");
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            // the request timed out, its client was told it was not enrolled
+            return new Response(504, "not enrolled");
+        }
+        templates.put(id, minutiae);
+        return new Response(200, "enrolled " + id + " with " + minutiae.size() + " minutiae");
+    }
+
+    private Response verify(Request request) {
+        String id = parameter(request, "id");
+        List<int[]> template = id == null ? null : templates.get(id);
+        if (template == null) {
+            return new Response(404, "unknown id " + id);
+        }
+        List<int[]> minutiae = minutiae(request);
+        if (minutiae == null) {
+            return new Response(400, "not an image");
+        }
+        // a comparison interrupted by the timeout stops at the next anchor
+        return new Response(200, String.valueOf(Fingerprint.match(minutiae, template, MatcherConfig.DEFAULT,
+                Thread.currentThread()::isInterrupted)));
+    }
+
+    private Response identify(Request request) {
+        List<int[]> minutiae = minutiae(request);
+        if (minutiae == null) {
+            return new Response(400, "not an image");
+        }
+        ArrayList<String> matches = new ArrayList<>();
+        for (Map.Entry<String, List<int[]>> entry : templates.entrySet()) {
+            if (Thread.currentThread().isInterrupted()) {
+                // the request timed out, nobody is waiting for the answer
+                break;
+            }
+            if (Fingerprint.match(minutiae, entry.getValue())) {
+                matches.add(entry.getKey());
+            }
+        }
+        return new Response(200, String.join("\n", matches));
+    }
+
+    /**
+     * Decodes the uploaded image and extracts its minutiae.
+     *
+     * @return the list of minutiae, or <code>null</code> if the body is not an
+     * image.
+     */
+    private static List<int[]> minutiae(Request request) {
+        boolean[][] image = Helper.readBinary(new ByteArrayInputStream(request.body));
+        return image == null ? null : Fingerprint.extract(Fingerprint.thin(image));
+    }
+
+    private static String parameter(Request request, String name) {
+        String query = request.query;
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                return URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+
+    /**
+     * Starts a server.
+     *
+     * @param args the port, the maximum number of concurrent requests and the
+     *             timeout in milliseconds, all optional.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int maxConcurrent = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 2;
+        long timeoutMillis = args.length > 2 ? Long.parseLong(args[2]) : 10000;
+        FingerprintServer server = new FingerprintServer(port, maxConcurrent, timeoutMillis);
+        server.start();
+        System.out.println("Listening on http://localhost:" + server.port());
+    }
+}
@@ -0,0 +1,203 @@
+package cs107;
+
+import java.nio.IntBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A fingerprint with every stage of the pipeline computed on first access and
+ * kept for the next ones: the binary image, the skeleton, the minutiae and the
+ * structures used to match them.
+ * <p>
+ * Each stage is computed at most once, from the previous one, however many
+ * threads ask for it at the same time: the stages are held in
+ * <code>volatile</code> fields, read without locking once computed and
+ * computed under the lock of the template otherwise. A template never changes
+ * what it returns, so it can be shared freely.
+ * <p>
+ * The binary image and the skeleton are only needed to extract the minutiae.
+ * {@link #release()} lets the garbage collector have them once the minutiae
+ * are known: they are computed again, the image being read again from its
+ * file, if they are asked for later.
+ * <p>
+ * The arrays returned are those of the template and must not be modified.
+ */
+public final class FingerprintTemplate {
+
+    private final String path;
+    private volatile boolean[][] image;
+    private volatile boolean[][] skeleton;
+    private volatile List<int[]> minutiae;
+    private volatile IntBuffer packed;
+    private volatile RotatedTemplate rotated;
+
+    private FingerprintTemplate(String path, boolean[][] image) {
+        this.path = path;
+        this.image = image;
+    }
+
+    /**
+     * Creates the template of a fingerprint image file, which is only read on
+     * first use.
+     *
+     * @param path the path of the image.
+     * @return the template.
+     * @see Helper#readBinary(String)
+     */
+    public static FingerprintTemplate fromFile(String path) {
+        return new FingerprintTemplate(path, null);
+    }
+
+    /**
+     * Creates the template of a binary image. The template keeps the image,
+     * even after {@link #release()}.
+     *
+     * @param image array containing each pixel's boolean value.
+     * @return the template.
+     */
+    public static FingerprintTemplate of(boolean[][] image) {
+        return new FingerprintTemplate(null, image);
+    }
+
+    /**
+     * @return the binary image of the fingerprint.
+     * @throws IllegalStateException if the image file cannot be read.
+     */
+    public boolean[][] image() {
+        boolean[][] result = image;
+        if (result == null) {
+            synchronized (this) {
+                result = image;
+                if (result == null) {
+                    result = Helper.readBinary(path);
+                    if (result == null) {
+                        throw new IllegalStateException("Cannot read the fingerprint " + path);
+                    }
+                    image = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the skeleton of the fingerprint.
+     * @see Fingerprint#thin(boolean[][])
+     */
+    public boolean[][] skeleton() {
+        boolean[][] result = skeleton;
+        if (result == null) {
+            synchronized (this) {
+                result = skeleton;
+                if (result == null) {
+                    skeleton = result = Fingerprint.thin(image());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the unmodifiable list of the minutiae of the fingerprint.
+     * @see Fingerprint#extract(boolean[][])
+     */
+    public List<int[]> minutiae() {
+        List<int[]> result = minutiae;
+        if (result == null) {
+            synchronized (this) {
+                result = minutiae;
+                if (result == null) {
+                    minutiae = result = Collections.unmodifiableList(Fingerprint.extract(skeleton()));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the minutiae packed as described in {@link PackedMinutiae}, as a
+     * read-only buffer.
+     */
+    public IntBuffer packed() {
+        IntBuffer result = packed;
+        if (result == null) {
+            synchronized (this) {
+                result = packed;
+                if (result == null) {
+                    packed = result = IntBuffer.wrap(PackedMinutiae.pack(minutiae())).asReadOnlyBuffer();
+                }
+            }
+        }
+        // each caller gets its own position and limit
+        return result.duplicate();
+    }
+
+    /**
+     * @return the minutiae with every rotation precomputed.
+     */
+    public RotatedTemplate rotated() {
+        RotatedTemplate result = rotated;
+        if (result == null) {
+            synchronized (this) {
+                result = rotated;
+                if (result == null) {
+                    rotated = result = new RotatedTemplate(minutiae());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops the binary image and the skeleton once the minutiae are known,
+     * unless the image is the source of the template.
+     */
+    public synchronized void release() {
+        if (minutiae == null) {
+            return;
+        }
+        skeleton = null;
+        if (path != null) {
+            image = null;
+        }
+    }
+
+    /**
+     * Compares this fingerprint with another one.
+     *
+     * @param other the other fingerprint.
+     * @return <code>true</code> if they match and <code>false</code> otherwise.
+     * @see Fingerprint#match(List, List)
+     */
+    public boolean match(FingerprintTemplate other) {
+        return Fingerprint.match(minutiae(), other.minutiae());
+    }
+
+    /**
+     * Compares this fingerprint with another one.
+     *
+     * @param other  the other fingerprint.
+     * @param config the parameters of the comparison.
+     * @return <code>true</code> if they match and <code>false</code> otherwise.
+     * @see Fingerprint#match(List, List, MatcherConfig)
+     */
+    public boolean match(FingerprintTemplate other, MatcherConfig config) {
+        return Fingerprint.match(minutiae(), other.minutiae(), config);
+    }
+
+    /**
+     * Computes the score of this fingerprint against another one.
+     *
+     * @param other the other fingerprint.
+     * @return the highest number of matching minutiae over all the alignments.
+     * @see Fingerprint#matchScore(List, List)
+     */
+    public int matchScore(FingerprintTemplate other) {
+        return Fingerprint.matchScore(minutiae(), other.minutiae());
+    }
+
+    @Override
+    public String toString() {
+        return "FingerprintTemplate[" + (path != null ? path : "image") + "]";
+    }
+}
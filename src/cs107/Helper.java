@@ -6,6 +6,7 @@ import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import javax.imageio.ImageIO;
 import javax.swing.JFrame;
@@ -62,6 +63,39 @@ public final class Helper {
     }
   }
 
+  /**
+   * Reads an image from a stream, such as an uploaded file, as ARGB.
+   *
+   * @param input the stream containing the encoded image, which is not closed.
+   * @return HxW array of packed RGB colors, or <code>null</code> on failure
+   */
+  public static int[][] readARGB(final InputStream input) {
+    try {
+      final BufferedImage image = ImageIO.read(input);
+      return image == null ? null : fromBufferedImage(image);
+    } catch (final IOException e) {
+      System.out.println(e);
+      return null;
+    }
+  }
+
+  /**
+   * Reads an image from a stream, such as an uploaded file, as binary.
+   *
+   * @param input the stream containing the encoded image, which is not closed.
+   * @return HxW array of packed binary colors, or <code>null</code> on failure
+   */
+  public static boolean[][] readBinary(final InputStream input) {
+    final FingerprintEvents.Decode event = new FingerprintEvents.Decode();
+    event.begin();
+    final long start = PipelineMetrics.start();
+    final int[][] image = readARGB(input);
+    final boolean[][] binary = image == null ? null : toBinary(image);
+    PipelineMetrics.recordDecode(start);
+    FingerprintEvents.commit(event, "stream", binary);
+    return binary;
+  }
+
   /**
    * Reads specified image from the resource folder as binary.
    *
@@ -71,8 +105,14 @@ public final class Helper {
    * @see #write
    */
   public static boolean[][] readBinary(final String name) {
+    final FingerprintEvents.Decode event = new FingerprintEvents.Decode();
+    event.begin();
+    final long start = PipelineMetrics.start();
     final int[][] image = readARGB(name);
-    return image == null ? null : toBinary(image);
+    final boolean[][] binary = image == null ? null : toBinary(image);
+    PipelineMetrics.recordDecode(start);
+    FingerprintEvents.commit(event, name, binary);
+    return binary;
   }
 
   /**
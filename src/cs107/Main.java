@@ -1,7 +1,25 @@
 package cs107;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -38,6 +56,15 @@ public class Main {
 //        testThin();
 //        testWithSkeleton();
 //        testApplyRotation();
+//        testTemplateFormat();
+//        testEnrollmentPipeline();
+//        testRunLengthSkeleton();
+//        testSkeletonLabels();
+//        testConcurrentGallery();
+//        testConsolidatedTemplate();
+//        testAsyncDeadline();
+//        testFingerprintServer();
+//        testOffHeapTemplateStore();
 //         testDrawSkeleton("1_1"); //draw skeleton of fingerprint 1_1.png
 //         testDrawSkeleton("1_2"); //draw skeleton of fingerprint 1_2.png
 //         testDrawSkeleton("2_1"); //draw skeleton of fingerprint 2_1.png
@@ -100,6 +127,14 @@ public class Main {
     }
 
     public static void testAllPossibleFingerprints() {
+        // every fingerprint is extracted once, on its first comparison
+        Map<String, FingerprintTemplate> templates = new LinkedHashMap<>();
+        for (int finger = 1; finger <= 16; finger++) {
+            for (int impression = 1; impression <= 8; impression++) {
+                String name = finger + "_" + impression;
+                templates.put(name, template(name));
+            }
+        }
         boolean expectedResult = false;
         for (int a = 1; a <= 16; a++) {
             for (int b = 1; b <= 16; b++) {
@@ -110,7 +145,9 @@ public class Main {
                         } else {
                             expectedResult = false;
                         }
-                        testFinger((a + "_" + c), (b + "_" + d), expectedResult);
+                        String name1 = a + "_" + c;
+                        String name2 = b + "_" + d;
+                        testFinger(name1, templates.get(name1), name2, templates.get(name2), expectedResult);
                     }
                 }
             }
@@ -533,8 +570,8 @@ public class Main {
         boolean[][] skeleton1 = Helper.readBinary("resources/test_inputs/skeletonTest.png");
         List<int[]> minutiae1 = Fingerprint.extract(skeleton1);
         List<int[]> expected = new ArrayList<int[]>();
-        expected.add(new int[]{39, 21, 264});
-        expected.add(new int[]{53, 33, 270});
+        expected.add(new int[]{39, 21, 264, Fingerprint.BIFURCATION});
+        expected.add(new int[]{53, 33, 270, Fingerprint.BIFURCATION});
 
         System.out.print("Expected minutiae: ");
         printMinutiae(expected);
@@ -547,6 +584,303 @@ public class Main {
         Helper.writeARGB("minutiae_skeletonTest.png", colorImageSkeleton1);
     }
 
+    /**
+     * Writes the minutiae of the skeleton test image as a template file and as a
+     * one entry gallery, reads them back and checks that nothing was lost.
+     */
+    public static void testTemplateFormat() {
+        System.out.print("testTemplateFormat: ");
+        List<int[]> minutiae = Fingerprint.extract(Helper.readBinary("resources/test_inputs/skeletonTest.png"));
+        TemplateFormat.writeTemplate("skeletonTest.fpt", minutiae);
+        Map<String, List<int[]>> templates = new LinkedHashMap<>();
+        templates.put("skeletonTest", minutiae);
+        MappedGallery.write("skeletonTest.fpg", templates);
+
+        List<int[]> fromTemplate = TemplateFormat.readTemplate("skeletonTest.fpt");
+        MappedGallery gallery = MappedGallery.open("skeletonTest.fpg");
+        if (fromTemplate != null && gallery != null && gallery.size() == 1
+                && gallery.id(0).equals("skeletonTest")
+                && Fingerprint.matchingMinutiaeCount(minutiae, fromTemplate, 0, 0) == minutiae.size()
+                && Fingerprint.matchingMinutiaeCount(minutiae, gallery.minutiae(0), 0, 0) == minutiae.size()) {
+            System.out.println("ok");
+        } else {
+            System.out.println("error");
+        }
+    }
+
+    /**
+     * Enrolls a directory holding a fingerprint and a corrupt image, once into
+     * a template directory and once into a missing one, and checks that every
+     * failure is counted and that the runs terminate.
+     */
+    public static void testEnrollmentPipeline() {
+        System.out.print("testEnrollmentPipeline: ");
+        try {
+            Path images = Files.createTempDirectory("enroll");
+            Path templates = Files.createTempDirectory("templates");
+            Files.copy(Paths.get("resources/fingerprints/1_1.png"), images.resolve("1_1.png"));
+            Files.write(images.resolve("bad.png"), new byte[]{1, 2, 3});
+            EnrollmentPipeline.Report written = new EnrollmentPipeline(4,
+                    EnrollmentPipeline.templateFiles(templates.toString())).run(images);
+            EnrollmentPipeline.Report unwritten = new EnrollmentPipeline(4,
+                    EnrollmentPipeline.templateFiles(templates.resolve("missing").toString())).run(images);
+            if (written.failed(EnrollmentPipeline.Stage.DECODE) == 1
+                    && written.processed(EnrollmentPipeline.Stage.PERSIST) == 1
+                    && Files.exists(templates.resolve("1_1.fpt"))
+                    && unwritten.failed(EnrollmentPipeline.Stage.DECODE) == 1
+                    && unwritten.failed(EnrollmentPipeline.Stage.PERSIST) == 1
+                    && unwritten.processed(EnrollmentPipeline.Stage.PERSIST) == 0) {
+                System.out.println("ok");
+            } else {
+                System.out.println("error\n" + written + unwritten);
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("error: " + e);
+        }
+    }
+
+    /**
+     * Writes the skeleton of the first fingerprint run-length encoded, reads it
+     * back and checks that the image and the neighbourhoods are unchanged.
+     */
+    public static void testRunLengthSkeleton() {
+        System.out.print("testRunLengthSkeleton: ");
+        boolean[][] skeleton = Fingerprint.thin(Helper.readBinary("resources/fingerprints/1_1.png"));
+        RunLengthSkeleton.of(skeleton).write("skeleton_1_1.fps");
+        RunLengthSkeleton read = RunLengthSkeleton.read("skeleton_1_1.fps");
+        boolean[] ok = {read != null && Fingerprint.identical(skeleton, read.toArray())};
+        if (read != null) {
+            read.forEachNeighbourhood((row, col, neighbours) -> {
+                boolean[] expected = Fingerprint.getNeighbours(skeleton, row, col);
+                for (int k = 0; k < expected.length; k++) {
+                    ok[0] &= expected[k] == ((neighbours & 1 << k) != 0);
+                }
+            });
+        }
+        System.out.println(ok[0] ? "ok" : "error");
+    }
+
+    /**
+     * Checks that the labelled components give the connected pixels of
+     * {@link Fingerprint#connectedPixels(boolean[][], int, int, int)} around
+     * every minutia of the first fingerprint.
+     */
+    public static void testSkeletonLabels() {
+        System.out.print("testSkeletonLabels: ");
+        boolean[][] skeleton = Fingerprint.thin(Helper.readBinary("resources/fingerprints/1_1.png"));
+        SkeletonLabels labels = SkeletonLabels.of(skeleton);
+        boolean ok = true;
+        for (int[] minutia : Fingerprint.extract(skeleton)) {
+            ok &= Fingerprint.identical(labels.connectedPixels(minutia[0], minutia[1], Fingerprint.ORIENTATION_DISTANCE),
+                    Fingerprint.connectedPixels(skeleton, minutia[0], minutia[1], Fingerprint.ORIENTATION_DISTANCE));
+        }
+        System.out.println(ok ? "ok" : "error");
+    }
+
+    /**
+     * Identifies an impression of the first finger in a gallery while another
+     * thread keeps enrolling and deleting templates of other fingers.
+     */
+    public static void testConcurrentGallery() {
+        System.out.print("testConcurrentGallery: ");
+        ConcurrentGallery gallery = new ConcurrentGallery();
+        for (String name : new String[]{"1_1", "1_2", "2_1", "3_1"}) {
+            gallery.enroll(name, template(name).minutiae());
+        }
+        List<int[]> other = template("4_1").minutiae();
+        List<int[]> probe = template("1_3").minutiae();
+        AtomicInteger enrolled = new AtomicInteger();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; !Thread.currentThread().isInterrupted(); i++) {
+                gallery.enroll("other_" + i, other);
+                gallery.delete("other_" + (i - 1));
+                enrolled.incrementAndGet();
+            }
+        });
+        writer.start();
+        while (enrolled.get() == 0) {
+            Thread.onSpinWait();
+        }
+        int before = enrolled.get();
+        List<String> matches = gallery.identify(probe);
+        int during = enrolled.get() - before;
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (matches.contains("1_1") && matches.contains("1_2") && !matches.contains("2_1") && during > 0
+                && !writer.isAlive()) {
+            System.out.println("ok");
+        } else {
+            System.out.println("error " + matches + ", " + during + " enrollments during the search");
+        }
+    }
+
+    /**
+     * Consolidates four impressions of the first finger and compares the
+     * template with a fifth impression and with another finger.
+     */
+    public static void testConsolidatedTemplate() {
+        System.out.print("testConsolidatedTemplate: ");
+        MatcherConfig config = ConsolidatedTemplate.DEFAULT_CONFIG;
+        List<List<int[]>> impressions = new ArrayList<>();
+        for (int impression = 1; impression <= 4; impression++) {
+            impressions.add(template("1_" + impression).minutiae());
+        }
+        ConsolidatedTemplate consolidated = ConsolidatedTemplate.of(impressions);
+        boolean genuine = consolidated.match(template("1_5").minutiae(), config);
+        boolean impostor = consolidated.match(template("2_5").minutiae(), config);
+        if (consolidated.registeredImpressions() == 4 && genuine && !impostor) {
+            System.out.println("ok");
+        } else {
+            System.out.println("error: " + consolidated.registeredImpressions() + " impressions registered, "
+                    + consolidated.template().size() + " minutiae, genuine " + genuine + ", impostor " + impostor);
+        }
+    }
+
+    /**
+     * Compares two images with a deadline shorter than the extraction of their
+     * templates and checks that the stages left after the deadline never run.
+     */
+    public static void testAsyncDeadline() {
+        System.out.print("testAsyncDeadline: ");
+        boolean enabled = PipelineMetrics.isEnabled();
+        PipelineMetrics.enable();
+        PipelineMetrics.reset();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Throwable error = null;
+        try {
+            new AsyncFingerprint(executor).verifyAsync("resources/fingerprints/1_1.png",
+                    "resources/fingerprints/2_1.png", Duration.ofMillis(50)).join();
+        } catch (CompletionException e) {
+            error = e.getCause();
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PipelineMetrics.Snapshot snapshot = PipelineMetrics.snapshot();
+        if (!enabled) {
+            PipelineMetrics.disable();
+        }
+        if (error instanceof TimeoutException && executor.isTerminated()
+                && snapshot.latency(PipelineMetrics.Stage.EXTRACT).count() == 0
+                && snapshot.latency(PipelineMetrics.Stage.MATCH).count() == 0) {
+            System.out.println("ok");
+        } else {
+            System.out.println("error: " + error + "\n" + snapshot);
+        }
+    }
+
+    /**
+     * Enrolls and verifies through a server, then overloads a server allowing a
+     * single request with a timeout shorter than an extraction: the request
+     * times out, the next one is refused, and once the abandoned request has
+     * stopped its template is not enrolled and its permit is back.
+     */
+    public static void testFingerprintServer() {
+        System.out.print("testFingerprintServer: ");
+        FingerprintServer server = null;
+        FingerprintServer slow = null;
+        try {
+            byte[] image1 = Files.readAllBytes(Paths.get("resources/fingerprints/1_1.png"));
+            byte[] image2 = Files.readAllBytes(Paths.get("resources/fingerprints/1_2.png"));
+            server = new FingerprintServer(0, 2, 10000);
+            server.start();
+            String enrolled = post(server.port(), "/enroll?id=1_1", image1);
+            String verified = post(server.port(), "/verify?id=1_1", image2);
+            String unknown = post(server.port(), "/verify?id=2_1", image2);
+
+            slow = new FingerprintServer(0, 1, 5);
+            slow.start();
+            String timedOut = post(slow.port(), "/enroll?id=1_1", image1);
+            String refused = post(slow.port(), "/enroll?id=1_2", image2);
+            // the permit is back once a request is no longer refused
+            String after = refused;
+            long end = System.currentTimeMillis() + 10000;
+            while (after.startsWith("503") && System.currentTimeMillis() < end) {
+                Thread.sleep(20);
+                after = post(slow.port(), "/verify?id=1_1", image2);
+            }
+            if (enrolled.startsWith("200") && verified.equals("200 true") && unknown.startsWith("404")
+                    && timedOut.startsWith("504") && refused.startsWith("503") && after.startsWith("404")
+                    && slow.templates().isEmpty()) {
+                System.out.println("ok");
+            } else {
+                System.out.println("error: " + String.join(", ", enrolled, verified, unknown, timedOut, refused,
+                        after));
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("error: " + e);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            if (slow != null) {
+                slow.stop();
+            }
+        }
+    }
+
+    /**
+     * Sends a <code>POST</code> request to a local server.
+     *
+     * @return the status code and the body of the response, separated by a
+     * space.
+     */
+    private static String post(int port, String path, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(body);
+        }
+        int status = connection.getResponseCode();
+        InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        String response = "";
+        if (input != null) {
+            try (InputStream in = input) {
+                response = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+        connection.disconnect();
+        return status + " " + response;
+    }
+
+    /**
+     * Checks that the templates of an off-heap store match and score probes as
+     * the templates on the heap do, and that a closed store refuses any access.
+     */
+    public static void testOffHeapTemplateStore() {
+        System.out.print("testOffHeapTemplateStore: ");
+        String[] names = {"1_1", "1_2", "2_1"};
+        boolean ok = true;
+        boolean refused = false;
+        OffHeapTemplateStore store = new OffHeapTemplateStore();
+        for (String name : names) {
+            store.add(template(name).minutiae());
+        }
+        for (String probeName : new String[]{"1_3", "2_2"}) {
+            List<int[]> probe = template(probeName).minutiae();
+            for (int i = 0; i < names.length; i++) {
+                List<int[]> minutiae = template(names[i]).minutiae();
+                ok &= store.match(probe, i) == Fingerprint.match(probe, minutiae);
+                ok &= store.score(probe, i) == Fingerprint.matchScore(probe, minutiae);
+            }
+        }
+        store.close();
+        try {
+            store.match(template("1_3").minutiae(), 0);
+        } catch (IllegalStateException e) {
+            refused = true;
+        }
+        System.out.println(ok && refused ? "ok" : "error: same results " + ok + ", refused after close " + refused);
+    }
+
     public static void printMinutiae(List<int[]> minutiae) {
         for (int[] minutia : minutiae) {
             System.out.print("[");
@@ -591,26 +925,28 @@ public class Main {
     }
 
     public static void testFinger(String name1, String name2, boolean expectedResult) {
-        boolean[][] image1 = Helper.readBinary("resources/fingerprints/" + name1 + ".png");
-        // Helper.show(Helper.fromBinary(image1), "Image1");
-        boolean[][] skeleton1 = Fingerprint.thin(image1);
-        //Helper.writeBinary("skeleton_" + name1 + ".png", skeleton1);
-        List<int[]> minutiae1 = Fingerprint.extract(skeleton1);
-        //printMinutiae(minutiae1);
+        testFinger(name1, template(name1), name2, template(name2), expectedResult);
+    }
 
-        //int[][] colorImageSkeleton1 = Helper.fromBinary(skeleton1);
-        //Helper.drawMinutia(colorImageSkeleton1, minutiae1);
+    /**
+     * Compares two fingerprints whose templates may already hold their
+     * minutiae, so that each fingerprint is only extracted once.
+     */
+    public static void testFinger(String name1, FingerprintTemplate template1, String name2,
+                                  FingerprintTemplate template2, boolean expectedResult) {
+        // Helper.show(Helper.fromBinary(template1.image()), "Image1");
+        //Helper.writeBinary("skeleton_" + name1 + ".png", template1.skeleton());
+        //printMinutiae(template1.minutiae());
+
+        //int[][] colorImageSkeleton1 = Helper.fromBinary(template1.skeleton());
+        //Helper.drawMinutia(colorImageSkeleton1, template1.minutiae());
         //Helper.writeARGB("./minutiae_" + name1 + ".png", colorImageSkeleton1);
 
-        boolean[][] image2 = Helper.readBinary("resources/fingerprints/" + name2 + ".png");
-        boolean[][] skeleton2 = Fingerprint.thin(image2);
-        List<int[]> minutiae2 = Fingerprint.extract(skeleton2);
-
-        //int[][] colorImageSkeleton2 = Helper.fromBinary(skeleton2);
-        //Helper.drawMinutia(colorImageSkeleton2, minutiae2);
+        //int[][] colorImageSkeleton2 = Helper.fromBinary(template2.skeleton());
+        //Helper.drawMinutia(colorImageSkeleton2, template2.minutiae());
         //Helper.writeARGB("./minutiae_" + name2 + ".png", colorImageSkeleton2);
 
-        boolean isMatch = Fingerprint.match(minutiae1, minutiae2);
+        boolean isMatch = template1.match(template2);
         if (isMatch == expectedResult) {
             System.out.println(name1 + " test with + " + name2 + " ok");
         } else {
@@ -619,6 +955,14 @@ public class Main {
         }
     }
 
+    /**
+     * @return the template of the fingerprint in the file
+     * <code>name.png</code>.
+     */
+    public static FingerprintTemplate template(String name) {
+        return FingerprintTemplate.fromFile("resources/fingerprints/" + name + ".png");
+    }
+
     /**
      * This function is here to help you test the overall functionalities. It will
      * compare the fingerprint in the file <code>name1.png</code> with all the eight
@@ -0,0 +1,209 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only gallery of templates memory-mapped from a single file.
+ * <p>
+ * The gallery file is laid out as follows:
+ * <ul>
+ * <li>the magic number {@link #GALLERY_MAGIC} (4 bytes),</li>
+ * <li>the version of the template encoding, {@link TemplateFormat#VERSION}
+ * when written (4 bytes),</li>
+ * <li>the number of templates <code>n</code> (4 bytes),</li>
+ * <li>an index of <code>n + 1</code> absolute offsets (8 bytes each), the last
+ * one being the end of the file,</li>
+ * <li>the <code>n</code> entries, each one made of the varint length of the
+ * identifier, the identifier in UTF-8 and the template as encoded by
+ * {@link TemplateFormat#encode(List)}.</li>
+ * </ul>
+ * Opening a gallery only maps the file and checks its header: nothing is
+ * copied or decoded until a template is requested, so opening is independent
+ * of the number of templates. The mapped buffer is only read with absolute
+ * positions, which makes a gallery safe to share between threads.
+ * <p>
+ * A gallery file must not be larger than {@link #MAX_FILE_SIZE} bytes (2 GB),
+ * the size of a single mapping: {@link #write(String, Map)} refuses larger
+ * galleries, and {@link #open(String)} refuses larger files.
+ */
+public final class MappedGallery {
+
+    /**
+     * The magic number at the start of every gallery file ("FPGL").
+     */
+    public static final int GALLERY_MAGIC = 0x4650474C;
+
+    /**
+     * The largest gallery file, in bytes, which is the largest mapping.
+     */
+    public static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+    private static final int HEADER_SIZE = 12;
+
+    private final MappedByteBuffer buffer;
+    private final int version;
+    private final int size;
+
+    private MappedGallery(MappedByteBuffer buffer, int version, int size) {
+        this.buffer = buffer;
+        this.version = version;
+        this.size = size;
+    }
+
+    /**
+     * Writes the templates to a gallery file, in the iteration order of the map.
+     *
+     * @param path      output file path.
+     * @param templates the templates, by identifier.
+     * @return {@code true} if write operation was successful, {@code false}
+     * otherwise, in particular if the gallery would be larger than
+     * {@link #MAX_FILE_SIZE}.
+     */
+    public static boolean write(String path, Map<String, List<int[]>> templates) {
+        int count = templates.size();
+        long indexSize = 8L * (count + 1);
+        if (HEADER_SIZE + indexSize > MAX_FILE_SIZE) {
+            System.out.println("Too many templates for a gallery: " + count + " Filename: " + path);
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer index = ByteBuffer.allocate((int) (HEADER_SIZE + indexSize));
+            index.putInt(GALLERY_MAGIC).putInt(TemplateFormat.VERSION).putInt(count);
+
+            long offset = HEADER_SIZE + indexSize;
+            channel.position(offset);
+            for (Map.Entry<String, List<int[]>> entry : templates.entrySet()) {
+                byte[] id = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] template = TemplateFormat.encode(entry.getValue());
+                ByteBuffer record = ByteBuffer.allocate(5 + id.length + template.length);
+                TemplateFormat.writeVarint(record, id.length);
+                record.put(id).put(template).flip();
+
+                index.putLong(offset);
+                offset += record.remaining();
+                if (offset > MAX_FILE_SIZE) {
+                    System.out.println("Gallery larger than " + MAX_FILE_SIZE + " bytes Filename: " + path);
+                    channel.truncate(0);
+                    return false;
+                }
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            index.putLong(offset).flip();
+            channel.position(0);
+            while (index.hasRemaining()) {
+                channel.write(index);
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println(e + " Filename: " + path);
+            return false;
+        }
+    }
+
+    /**
+     * Maps a gallery file in memory.
+     *
+     * @param path the gallery file path.
+     * @return the mapped gallery, or <code>null</code> on failure, including
+     * when the file is larger than {@link #MAX_FILE_SIZE} or its index does
+     * not fit in it.
+     */
+    public static MappedGallery open(String path) {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() > MAX_FILE_SIZE) {
+                System.out.println("Gallery larger than " + MAX_FILE_SIZE + " bytes Filename: " + path);
+                return null;
+            }
+            // the mapping stays valid once the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != GALLERY_MAGIC
+                    || !TemplateFormat.isSupported(buffer.getInt(4))) {
+                System.out.println("Not a version " + TemplateFormat.MIN_VERSION + " to " + TemplateFormat.VERSION
+                        + " gallery file: " + path);
+                return null;
+            }
+            int count = buffer.getInt(8);
+            long dataStart = HEADER_SIZE + 8L * (count + 1L);
+            // the index must fit, start right after itself and end at the end of the file
+            if (count < 0 || dataStart > buffer.capacity() || buffer.getLong(HEADER_SIZE) != dataStart
+                    || buffer.getLong((int) dataStart - 8) != buffer.capacity()) {
+                System.out.println("Corrupt gallery index of " + count + " templates Filename: " + path);
+                return null;
+            }
+            return new MappedGallery(buffer, buffer.getInt(4), count);
+        } catch (IOException e) {
+            System.out.println(e + " Filename: " + path);
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of templates in the gallery.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the identifier of a template.
+     *
+     * @param index the index of the template, between <code>0</code>(included)
+     *              and {@link #size()}(excluded).
+     * @return the identifier given when writing the gallery.
+     */
+    public String id(int index) {
+        int[] cursor = {entryOffset(index)};
+        int length = TemplateFormat.readVarint(buffer, cursor);
+        byte[] id = new byte[length];
+        for (int i = 0; i < length; i++) {
+            id[i] = buffer.get(cursor[0] + i);
+        }
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes the minutiae of a template.
+     *
+     * @param index the index of the template, between <code>0</code>(included)
+     *              and {@link #size()}(excluded).
+     * @return the list of minutiae.
+     */
+    public List<int[]> minutiae(int index) {
+        return TemplateFormat.decode(buffer, templateOffset(index), version);
+    }
+
+    /**
+     * Returns the number of minutiae of a template without decoding it.
+     *
+     * @param index the index of the template, between <code>0</code>(included)
+     *              and {@link #size()}(excluded).
+     * @return the number of minutiae.
+     */
+    public int minutiaeCount(int index) {
+        return TemplateFormat.minutiaeCount(buffer, templateOffset(index));
+    }
+
+    private int entryOffset(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Template " + index + " out of " + size);
+        }
+        return (int) buffer.getLong(HEADER_SIZE + 8 * index);
+    }
+
+    private int templateOffset(int index) {
+        int[] cursor = {entryOffset(index)};
+        int length = TemplateFormat.readVarint(buffer, cursor);
+        return cursor[0] + length;
+    }
+}
@@ -0,0 +1,164 @@
+package cs107;
+
+/**
+ * The parameters of the comparison of two fingerprints.
+ * <p>
+ * For every pair of anchor minutiae, {@link Fingerprint#match(java.util.List,
+ * java.util.List, MatcherConfig)} tries the rotations within
+ * {@link #angleOffset} degrees of the difference of their angles. With a
+ * {@link #coarseStep} of 1 every rotation of the range is tried, as the
+ * original matcher did. With a larger step the range is first searched every
+ * {@link #coarseStep} degrees, and only when the best of these rotations makes
+ * at least {@link #refineThreshold} minutiae overlap are the rotations around
+ * it tried one degree at a time. A range of <code>2a + 1</code> degrees then
+ * costs about <code>2a / s + 2s</code> alignments instead of <code>2a + 1</code>,
+ * which allows a wide tolerance for rolled prints.
+ * <p>
+ * When {@link #pyramidCandidates} is positive, the fingerprints are instead
+ * compared in two levels by {@link PyramidMatcher}: every anchor pair is first
+ * scored on minutiae quantized to cells of {@link #pyramidScale} pixels, and
+ * only the {@link #pyramidCandidates} best anchor pairs are then searched at
+ * full resolution.
+ * <p>
+ * A configuration is immutable: the <code>with</code> methods return a
+ * modified copy.
+ */
+public final class MatcherConfig {
+
+    /**
+     * The configuration of the original matcher, built from the constants of
+     * {@link Fingerprint}.
+     */
+    public static final MatcherConfig DEFAULT = new MatcherConfig(Fingerprint.DISTANCE_THRESHOLD,
+            Fingerprint.ORIENTATION_THRESHOLD, Fingerprint.FOUND_THRESHOLD, Fingerprint.MATCH_ANGLE_OFFSET, 1, 0, 0, 0);
+
+    /**
+     * The maximum distance between two minutiae to be considered matching.
+     */
+    public final int distanceThreshold;
+
+    /**
+     * The distance between two angles to be considered identical.
+     */
+    public final int orientationThreshold;
+
+    /**
+     * The number of matching minutiae needed for two fingerprints to be
+     * considered identical.
+     */
+    public final int foundThreshold;
+
+    /**
+     * The offset in each direction of the rotations to try around the angle
+     * difference of the anchors.
+     */
+    public final int angleOffset;
+
+    /**
+     * The step in degrees of the coarse rotation search, <code>1</code> to try
+     * every rotation.
+     */
+    public final int coarseStep;
+
+    /**
+     * The number of overlapping minutiae from which the best coarse rotation is
+     * refined.
+     */
+    public final int refineThreshold;
+
+    /**
+     * The size in pixels of the cells of the coarse level of the pyramid
+     * matcher.
+     */
+    public final int pyramidScale;
+
+    /**
+     * The number of anchor pairs of the coarse level searched at full
+     * resolution, <code>0</code> to search every anchor pair at full resolution.
+     */
+    public final int pyramidCandidates;
+
+    private MatcherConfig(int distanceThreshold, int orientationThreshold, int foundThreshold, int angleOffset,
+                          int coarseStep, int refineThreshold, int pyramidScale, int pyramidCandidates) {
+        if (distanceThreshold < 0 || orientationThreshold < 0 || foundThreshold < 1 || angleOffset < 0
+                || coarseStep < 1 || refineThreshold < 0 || pyramidCandidates < 0
+                || (pyramidCandidates > 0 && pyramidScale < 1)) {
+            throw new IllegalArgumentException("Invalid matcher parameters");
+        }
+        this.distanceThreshold = distanceThreshold;
+        this.orientationThreshold = orientationThreshold;
+        this.foundThreshold = foundThreshold;
+        this.angleOffset = angleOffset;
+        this.coarseStep = coarseStep;
+        this.refineThreshold = refineThreshold;
+        this.pyramidScale = pyramidScale;
+        this.pyramidCandidates = pyramidCandidates;
+    }
+
+    /**
+     * @param distanceThreshold the maximum distance between matching minutiae.
+     * @return a copy of this configuration with the given distance threshold.
+     */
+    public MatcherConfig withDistanceThreshold(int distanceThreshold) {
+        return new MatcherConfig(distanceThreshold, orientationThreshold, foundThreshold, angleOffset, coarseStep,
+                refineThreshold, pyramidScale, pyramidCandidates);
+    }
+
+    /**
+     * @param orientationThreshold the maximum angle between matching minutiae.
+     * @return a copy of this configuration with the given orientation
+     * threshold.
+     */
+    public MatcherConfig withOrientationThreshold(int orientationThreshold) {
+        return new MatcherConfig(distanceThreshold, orientationThreshold, foundThreshold, angleOffset, coarseStep,
+                refineThreshold, pyramidScale, pyramidCandidates);
+    }
+
+    /**
+     * @param foundThreshold the number of matching minutiae needed for a match.
+     * @return a copy of this configuration with the given found threshold.
+     */
+    public MatcherConfig withFoundThreshold(int foundThreshold) {
+        return new MatcherConfig(distanceThreshold, orientationThreshold, foundThreshold, angleOffset, coarseStep,
+                refineThreshold, pyramidScale, pyramidCandidates);
+    }
+
+    /**
+     * @param angleOffset the offset of the rotations to try in each direction.
+     * @return a copy of this configuration with the given angle offset.
+     */
+    public MatcherConfig withAngleOffset(int angleOffset) {
+        return new MatcherConfig(distanceThreshold, orientationThreshold, foundThreshold, angleOffset, coarseStep,
+                refineThreshold, pyramidScale, pyramidCandidates);
+    }
+
+    /**
+     * @param coarseStep      the step of the coarse rotation search.
+     * @param refineThreshold the number of overlapping minutiae from which the
+     *                        best coarse rotation is refined.
+     * @return a copy of this configuration with the given rotation search.
+     */
+    public MatcherConfig withCoarseSearch(int coarseStep, int refineThreshold) {
+        return new MatcherConfig(distanceThreshold, orientationThreshold, foundThreshold, angleOffset, coarseStep,
+                refineThreshold, pyramidScale, pyramidCandidates);
+    }
+
+    /**
+     * @param scale      the size in pixels of the cells of the coarse level.
+     * @param candidates the number of anchor pairs searched at full resolution,
+     *                   <code>0</code> for the exhaustive matcher.
+     * @return a copy of this configuration with the given pyramid matching.
+     */
+    public MatcherConfig withPyramid(int scale, int candidates) {
+        return new MatcherConfig(distanceThreshold, orientationThreshold, foundThreshold, angleOffset, coarseStep,
+                refineThreshold, scale, candidates);
+    }
+
+    @Override
+    public String toString() {
+        return "distance " + distanceThreshold + ", orientation " + orientationThreshold + ", found "
+                + foundThreshold + ", rotation +-" + angleOffset + " by " + coarseStep + " (refined from "
+                + refineThreshold + ")"
+                + (pyramidCandidates > 0 ? ", pyramid of " + pyramidScale + " px cells keeping " + pyramidCandidates : "");
+    }
+}
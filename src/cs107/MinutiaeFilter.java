@@ -0,0 +1,270 @@
+package cs107;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes the spurious minutiae left by thinning artifacts.
+ * <p>
+ * Three kinds of artifacts are handled, in this order:
+ * <ul>
+ * <li>spurs: a ridge ending whose ridge reaches a junction or another ending
+ * within {@link #spurLength} pixels is a short branch or a short isolated
+ * segment, and is removed together with the minutia at its other end,</li>
+ * <li>clusters: bifurcations closer than {@link #clusterRadius} come from the
+ * same blob or bridge between ridges and are merged into one minutia at their
+ * mean position,</li>
+ * <li>duplicates: minutiae closer than {@link #duplicateRadius} with similar
+ * orientations are reduced to the first of them.</li>
+ * </ul>
+ * Since matching costs grow with the square of the number of minutiae, the
+ * filter makes the comparisons both faster and less prone to false matches.
+ */
+public final class MinutiaeFilter {
+
+    /**
+     * The default filter.
+     */
+    public static final MinutiaeFilter DEFAULT = new MinutiaeFilter(8, 6, 3);
+
+    /**
+     * The offsets of the neighbours, in the order of
+     * {@link Fingerprint#getNeighbours(boolean[][], int, int)}.
+     */
+    private static final int[] NEIGHBOUR_ROWS = {-1, -1, 0, 1, 1, 1, 0, -1};
+    private static final int[] NEIGHBOUR_COLS = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    /**
+     * The length in pixels under which a ridge starting at an ending is a spur.
+     */
+    public final int spurLength;
+
+    /**
+     * The distance in pixels under which bifurcations are merged.
+     */
+    public final int clusterRadius;
+
+    /**
+     * The distance in pixels under which similar minutiae are duplicates.
+     */
+    public final int duplicateRadius;
+
+    /**
+     * Creates a filter. A value of <code>0</code> disables the corresponding
+     * step.
+     *
+     * @param spurLength      the length under which a ridge is a spur.
+     * @param clusterRadius   the distance under which bifurcations are merged.
+     * @param duplicateRadius the distance under which minutiae are duplicates.
+     */
+    public MinutiaeFilter(int spurLength, int clusterRadius, int duplicateRadius) {
+        this.spurLength = spurLength;
+        this.clusterRadius = clusterRadius;
+        this.duplicateRadius = duplicateRadius;
+    }
+
+    /**
+     * The filtered minutiae and what was removed.
+     */
+    public static final class Result {
+        /**
+         * The minutiae kept.
+         */
+        public final List<int[]> minutiae;
+        /**
+         * The number of minutiae removed as spurs.
+         */
+        public final int spurs;
+        /**
+         * The number of minutiae removed by merging clusters.
+         */
+        public final int clusters;
+        /**
+         * The number of minutiae removed as duplicates.
+         */
+        public final int duplicates;
+
+        Result(List<int[]> minutiae, int spurs, int clusters, int duplicates) {
+            this.minutiae = minutiae;
+            this.spurs = spurs;
+            this.clusters = clusters;
+            this.duplicates = duplicates;
+        }
+
+        /**
+         * @return the total number of minutiae removed.
+         */
+        public int removed() {
+            return spurs + clusters + duplicates;
+        }
+
+        @Override
+        public String toString() {
+            return minutiae.size() + " minutiae kept, " + removed() + " removed (" + spurs + " spurs, "
+                    + clusters + " in clusters, " + duplicates + " duplicates)";
+        }
+    }
+
+    /**
+     * Filters the minutiae extracted from a skeleton.
+     *
+     * @param skeleton the thinned image the minutiae were extracted from.
+     * @param minutiae the minutiae, as returned by
+     *                 {@link Fingerprint#extract(boolean[][])}.
+     * @return the minutiae kept and the number of minutiae removed.
+     */
+    public Result filter(boolean[][] skeleton, List<int[]> minutiae) {
+        ArrayList<int[]> kept = new ArrayList<>(minutiae);
+        int before = kept.size();
+        if (spurLength > 0) {
+            removeSpurs(skeleton, kept);
+        }
+        int spurs = before - kept.size();
+
+        before = kept.size();
+        if (clusterRadius > 0) {
+            mergeClusters(skeleton, kept);
+        }
+        int clusters = before - kept.size();
+
+        before = kept.size();
+        if (duplicateRadius > 0) {
+            removeDuplicates(kept);
+        }
+        return new Result(kept, spurs, clusters, before - kept.size());
+    }
+
+    private void removeSpurs(boolean[][] skeleton, List<int[]> minutiae) {
+        boolean[] removed = new boolean[minutiae.size()];
+        for (int i = 0; i < minutiae.size(); i++) {
+            int[] minutia = minutiae.get(i);
+            if (removed[i] || type(skeleton, minutia) != 1) {
+                continue;
+            }
+            int[] end = traceRidge(skeleton, minutia[0], minutia[1]);
+            if (end == null) {
+                continue;
+            }
+            removed[i] = true;
+            // the bifurcation or ending at the other end of the spur is spurious too
+            for (int j = 0; j < minutiae.size(); j++) {
+                if (j != i && distanceSquared(minutiae.get(j), end) <= 2) {
+                    removed[j] = true;
+                }
+            }
+        }
+        removeMarked(minutiae, removed);
+    }
+
+    /**
+     * Follows the ridge starting at an ending for at most {@link #spurLength}
+     * pixels.
+     *
+     * @return the position where the ridge reaches a junction or ends, or
+     * <code>null</code> if it is longer than {@link #spurLength}.
+     */
+    private int[] traceRidge(boolean[][] skeleton, int row, int col) {
+        ArrayList<int[]> visited = new ArrayList<>();
+        visited.add(new int[]{row, col});
+        for (int step = 0; step < spurLength; step++) {
+            boolean[] neighbours = Fingerprint.getNeighbours(skeleton, row, col);
+            int[] next = null;
+            for (int k = 0; k < neighbours.length; k++) {
+                int[] position = {row + NEIGHBOUR_ROWS[k], col + NEIGHBOUR_COLS[k]};
+                if (neighbours[k] && !contains(visited, position)) {
+                    next = position;
+                    // prefer horizontal and vertical moves so that corners are not skipped
+                    if (k % 2 == 0) {
+                        break;
+                    }
+                }
+            }
+            if (next == null) {
+                return new int[]{row, col};
+            }
+            row = next[0];
+            col = next[1];
+            visited.add(next);
+            if (Fingerprint.transitions(Fingerprint.getNeighbours(skeleton, row, col)) != 2) {
+                // another ending, or a junction
+                return next;
+            }
+        }
+        return null;
+    }
+
+    private static boolean contains(List<int[]> positions, int[] position) {
+        for (int[] p : positions) {
+            if (p[0] == position[0] && p[1] == position[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void mergeClusters(boolean[][] skeleton, List<int[]> minutiae) {
+        int radius = clusterRadius * clusterRadius;
+        boolean[] removed = new boolean[minutiae.size()];
+        for (int i = 0; i < minutiae.size(); i++) {
+            if (removed[i] || type(skeleton, minutiae.get(i)) != 3) {
+                continue;
+            }
+            int[] merged = minutiae.get(i).clone();
+            int rowSum = merged[0];
+            int colSum = merged[1];
+            int count = 1;
+            for (int j = i + 1; j < minutiae.size(); j++) {
+                if (!removed[j] && type(skeleton, minutiae.get(j)) == 3
+                        && distanceSquared(minutiae.get(i), minutiae.get(j)) <= radius) {
+                    removed[j] = true;
+                    rowSum += minutiae.get(j)[0];
+                    colSum += minutiae.get(j)[1];
+                    count++;
+                }
+            }
+            merged[0] = Math.round((float) rowSum / count);
+            merged[1] = Math.round((float) colSum / count);
+            minutiae.set(i, merged);
+        }
+        removeMarked(minutiae, removed);
+    }
+
+    private void removeDuplicates(List<int[]> minutiae) {
+        int radius = duplicateRadius * duplicateRadius;
+        boolean[] removed = new boolean[minutiae.size()];
+        for (int i = 0; i < minutiae.size(); i++) {
+            for (int j = i + 1; j < minutiae.size() && !removed[i]; j++) {
+                if (!removed[j] && distanceSquared(minutiae.get(i), minutiae.get(j)) <= radius
+                        && Math.abs(minutiae.get(i)[2] - minutiae.get(j)[2]) <= Fingerprint.ORIENTATION_THRESHOLD) {
+                    removed[j] = true;
+                }
+            }
+        }
+        removeMarked(minutiae, removed);
+    }
+
+    /**
+     * @return the number of transitions around the minutia: <code>1</code> for
+     * a ridge ending, <code>3</code> for a bifurcation.
+     */
+    private static int type(boolean[][] skeleton, int[] minutia) {
+        return Fingerprint.transitions(Fingerprint.getNeighbours(skeleton, minutia[0], minutia[1]));
+    }
+
+    private static int distanceSquared(int[] minutia1, int[] minutia2) {
+        int rowDiff = minutia1[0] - minutia2[0];
+        int colDiff = minutia1[1] - minutia2[1];
+        return rowDiff * rowDiff + colDiff * colDiff;
+    }
+
+    private static void removeMarked(List<int[]> minutiae, boolean[] removed) {
+        ArrayList<int[]> kept = new ArrayList<>();
+        for (int i = 0; i < minutiae.size(); i++) {
+            if (!removed[i]) {
+                kept.add(minutiae.get(i));
+            }
+        }
+        minutiae.clear();
+        minutiae.addAll(kept);
+    }
+}
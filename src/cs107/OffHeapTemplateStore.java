@@ -0,0 +1,223 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A gallery of templates whose minutiae live outside of the Java heap.
+ * <p>
+ * Minutiae are packed as described in {@link PackedMinutiae} into large direct
+ * buffers (slabs) of {@link #SLAB_INTS} ints, and the index of the templates
+ * (slab, offset and count of each template) is itself kept in a direct buffer.
+ * The heap therefore only holds a handful of buffer objects whatever the size
+ * of the gallery, and matching reads the minutiae in place.
+ * <p>
+ * The store owns all of its memory: once {@link #close()} is called every
+ * access throws an {@link IllegalStateException} and the buffers become
+ * unreachable so the memory is given back to the system. Templates can be
+ * added by one thread while others search the templates already added.
+ */
+public final class OffHeapTemplateStore implements AutoCloseable {
+
+    /**
+     * The number of ints of each slab (16 MB).
+     */
+    public static final int SLAB_INTS = 1 << 22;
+
+    private static final int INDEX_STRIDE = 3;
+
+    /**
+     * The buffers of the store, replaced as a whole when one of them grows so
+     * that a reader gets consistent ones with a single read. <code>null</code>
+     * once the store is closed.
+     */
+    private volatile Memory memory = new Memory(new IntBuffer[0], allocate(1024 * INDEX_STRIDE));
+    private int slabPosition = SLAB_INTS;
+    private volatile int size;
+
+    private static final class Memory {
+        final IntBuffer[] slabs;
+        final IntBuffer index;
+
+        Memory(IntBuffer[] slabs, IntBuffer index) {
+            this.slabs = slabs;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Copies the minutiae of a template into the store.
+     *
+     * @param minutiae the list of minutiae.
+     * @return the index of the template in the store.
+     */
+    public synchronized int add(List<int[]> minutiae) {
+        Memory memory = open();
+        int length = minutiae.size() * PackedMinutiae.STRIDE;
+        if (length > SLAB_INTS) {
+            throw new IllegalArgumentException("Template of " + minutiae.size() + " minutiae does not fit in a slab");
+        }
+        IntBuffer[] slabs = memory.slabs;
+        IntBuffer index = memory.index;
+        if (slabPosition + length > SLAB_INTS) {
+            slabs = Arrays.copyOf(slabs, slabs.length + 1);
+            slabs[slabs.length - 1] = allocate(SLAB_INTS);
+            slabPosition = 0;
+        }
+        IntBuffer slab = slabs[slabs.length - 1];
+        for (int i = 0; i < minutiae.size(); i++) {
+            int[] minutia = minutiae.get(i);
+            for (int j = 0; j < PackedMinutiae.STRIDE; j++) {
+                // templates without types are stored with the unknown type 0
+                slab.put(slabPosition + i * PackedMinutiae.STRIDE + j, j < minutia.length ? minutia[j] : 0);
+            }
+        }
+
+        if ((size + 1) * INDEX_STRIDE > index.capacity()) {
+            IntBuffer newIndex = allocate(index.capacity() * 2);
+            newIndex.put(index.duplicate().clear());
+            index = newIndex;
+        }
+        index.put(size * INDEX_STRIDE, slabs.length - 1);
+        index.put(size * INDEX_STRIDE + 1, slabPosition);
+        index.put(size * INDEX_STRIDE + 2, minutiae.size());
+        slabPosition += length;
+        if (slabs != memory.slabs || index != memory.index) {
+            this.memory = new Memory(slabs, index);
+        }
+        // publishes the template to the readers, after the buffers holding it
+        return size++;
+    }
+
+    /**
+     * @return the number of templates in the store.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of minutiae of a template.
+     *
+     * @param template the index of the template.
+     * @return the number of minutiae.
+     */
+    public int minutiaeCount(int template) {
+        int count = size;
+        return indexEntry(open(), count, template, 2);
+    }
+
+    /**
+     * Copies the minutiae of a template back to the heap.
+     *
+     * @param template the index of the template.
+     * @return the list of minutiae.
+     */
+    public List<int[]> minutiae(int template) {
+        int size = this.size;
+        Memory memory = open();
+        IntBuffer slab = slab(memory, size, template);
+        int offset = indexEntry(memory, size, template, 1);
+        int count = indexEntry(memory, size, template, 2);
+        ArrayList<int[]> minutiae = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int position = offset + i * PackedMinutiae.STRIDE;
+            minutiae.add(new int[]{slab.get(position), slab.get(position + 1), slab.get(position + 2),
+                    slab.get(position + 3)});
+        }
+        return minutiae;
+    }
+
+    /**
+     * Compares a probe with a template of the store, reading the template in
+     * place.
+     *
+     * @param probe    the list of minutiae of the probe.
+     * @param template the index of the template.
+     * @return <code>true</code> if they match, as
+     * {@link Fingerprint#match(List, List)} would, and <code>false</code>
+     * otherwise.
+     */
+    public boolean match(List<int[]> probe, int template) {
+        int size = this.size;
+        Memory memory = open();
+        return PackedMinutiae.match(probe, slab(memory, size, template), indexEntry(memory, size, template, 1),
+                indexEntry(memory, size, template, 2));
+    }
+
+    /**
+     * Computes the score of a probe against a template of the store, reading the
+     * template in place.
+     *
+     * @param probe    the list of minutiae of the probe.
+     * @param template the index of the template.
+     * @return the score, as {@link Fingerprint#matchScore(List, List)} would
+     * compute it.
+     */
+    public int score(List<int[]> probe, int template) {
+        int size = this.size;
+        Memory memory = open();
+        return PackedMinutiae.score(probe, slab(memory, size, template), indexEntry(memory, size, template, 1),
+                indexEntry(memory, size, template, 2));
+    }
+
+    /**
+     * Compares a probe with every template of the store.
+     *
+     * @param probe the list of minutiae of the probe.
+     * @return the indices of the templates matching the probe.
+     */
+    public List<Integer> search(List<int[]> probe) {
+        ArrayList<Integer> matches = new ArrayList<>();
+        int count = size;
+        for (int template = 0; template < count; template++) {
+            if (match(probe, template)) {
+                matches.add(template);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Releases the memory of the store. The store cannot be used afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        memory = null;
+    }
+
+    /**
+     * Reads an entry of the index. The size must be read before the memory, so
+     * that the memory holds every template counted.
+     */
+    private static int indexEntry(Memory memory, int size, int template, int field) {
+        if (template < 0 || template >= size) {
+            throw new IndexOutOfBoundsException("Template " + template + " out of " + size);
+        }
+        return memory.index.get(template * INDEX_STRIDE + field);
+    }
+
+    private static IntBuffer slab(Memory memory, int size, int template) {
+        return memory.slabs[indexEntry(memory, size, template, 0)];
+    }
+
+    /**
+     * @return the buffers of the store.
+     * @throws IllegalStateException if the store is closed.
+     */
+    private Memory open() {
+        Memory memory = this.memory;
+        if (memory == null) {
+            throw new IllegalStateException("The template store is closed");
+        }
+        return memory;
+    }
+
+    private static IntBuffer allocate(int ints) {
+        return ByteBuffer.allocateDirect(ints * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+}
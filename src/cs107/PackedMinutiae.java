@@ -0,0 +1,188 @@
+package cs107;
+
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Matching on minutiae packed as consecutive ints in an {@link IntBuffer}.
+ * <p>
+ * A packed template is a run of {@link #STRIDE} ints per minutia: the row, the
+ * column, the angle and the type, <code>0</code> when the type is unknown. The
+ * buffer can be on the heap or off the heap, which lets the same matching code
+ * read templates wherever they are stored.
+ */
+public final class PackedMinutiae {
+
+    /**
+     * The number of ints used by each minutia.
+     */
+    public static final int STRIDE = 4;
+
+    private PackedMinutiae() {
+    }
+
+    /**
+     * Packs the minutiae into an array of {@link #STRIDE} ints per minutia.
+     *
+     * @param minutiae the list of minutiae.
+     * @return the packed minutiae.
+     */
+    public static int[] pack(List<int[]> minutiae) {
+        int[] packed = new int[minutiae.size() * STRIDE];
+        for (int i = 0; i < minutiae.size(); i++) {
+            int[] minutia = minutiae.get(i);
+            System.arraycopy(minutia, 0, packed, i * STRIDE, Math.min(minutia.length, STRIDE));
+        }
+        return packed;
+    }
+
+    /**
+     * Compares the minutiae of a probe with a packed template. This gives the
+     * same result as {@link Fingerprint#match(List, List)} with the probe as the
+     * first fingerprint, without creating any transformed copy of the template.
+     *
+     * @param probe    the list of minutiae of the probe.
+     * @param template the buffer containing the packed template.
+     * @param offset   the absolute position of the first int of the template.
+     * @param count    the number of minutiae of the template.
+     * @return Returns <code>true</code> if they match and <code>false</code>
+     * otherwise.
+     */
+    public static boolean match(List<int[]> probe, IntBuffer template, int offset, int count) {
+        return match(probe, template, offset, count, () -> false);
+    }
+
+    /**
+     * Compares the minutiae of a probe with a packed template, giving up as soon
+     * as the comparison is no longer needed.
+     *
+     * @param probe     the list of minutiae of the probe.
+     * @param template  the buffer containing the packed template.
+     * @param offset    the absolute position of the first int of the template.
+     * @param count     the number of minutiae of the template.
+     * @param cancelled checked before each anchor of the probe.
+     * @return Returns <code>true</code> if they match and <code>false</code>
+     * otherwise.
+     * @throws CancellationException if <code>cancelled</code> returned
+     *                               <code>true</code>.
+     */
+    public static boolean match(List<int[]> probe, IntBuffer template, int offset, int count, BooleanSupplier cancelled) {
+        for (int[] anchor : probe) {
+            if (cancelled.getAsBoolean()) {
+                throw new CancellationException("Comparison cancelled");
+            }
+            for (int m2 = 0; m2 < count; m2++) {
+                int position = offset + m2 * STRIDE;
+                if (!sameType(anchor, template.get(position + 3))) {
+                    continue;
+                }
+                int rowTranslation = template.get(position) - anchor[0];
+                int colTranslation = template.get(position + 1) - anchor[1];
+                int rotation = template.get(position + 2) - anchor[2];
+                for (int r = rotation - Fingerprint.MATCH_ANGLE_OFFSET; r <= rotation + Fingerprint.MATCH_ANGLE_OFFSET; r++) {
+                    if (matchingMinutiaeCount(probe, template, offset, count, anchor[0], anchor[1],
+                            rowTranslation, colTranslation, r, Fingerprint.FOUND_THRESHOLD) >= Fingerprint.FOUND_THRESHOLD) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the score of a probe against a packed template, as
+     * {@link Fingerprint#matchScore(List, List)} would with the probe as the
+     * first fingerprint.
+     *
+     * @param probe    the list of minutiae of the probe.
+     * @param template the buffer containing the packed template.
+     * @param offset   the absolute position of the first int of the template.
+     * @param count    the number of minutiae of the template.
+     * @return the highest number of matching minutiae over all the alignments.
+     */
+    public static int score(List<int[]> probe, IntBuffer template, int offset, int count) {
+        int bestCount = 0;
+        for (int[] anchor : probe) {
+            for (int m2 = 0; m2 < count; m2++) {
+                int position = offset + m2 * STRIDE;
+                if (!sameType(anchor, template.get(position + 3))) {
+                    continue;
+                }
+                int rowTranslation = template.get(position) - anchor[0];
+                int colTranslation = template.get(position + 1) - anchor[1];
+                int rotation = template.get(position + 2) - anchor[2];
+                for (int r = rotation - Fingerprint.MATCH_ANGLE_OFFSET; r <= rotation + Fingerprint.MATCH_ANGLE_OFFSET; r++) {
+                    bestCount = Math.max(bestCount, matchingMinutiaeCount(probe, template, offset, count, anchor[0],
+                            anchor[1], rowTranslation, colTranslation, r, Integer.MAX_VALUE));
+                }
+            }
+        }
+        return bestCount;
+    }
+
+    /**
+     * Counts the overlapping minutiae between the probe and the template once
+     * the transformation is applied to the template, as
+     * {@link Fingerprint#applyTransformation(List, int, int, int, int, int)}
+     * followed by {@link Fingerprint#matchingMinutiaeCount(List, List, int, int)}
+     * would.
+     *
+     * @param probe          the list of minutiae of the probe.
+     * @param template       the buffer containing the packed template.
+     * @param offset         the absolute position of the first int of the template.
+     * @param count          the number of minutiae of the template.
+     * @param centerRow      the row around which the template is rotated.
+     * @param centerCol      the column around which the template is rotated.
+     * @param rowTranslation the vertical translation.
+     * @param colTranslation the horizontal translation.
+     * @param rotation       the rotation in degrees.
+     * @param stopAt         the count at which counting can stop.
+     * @return the number of overlapping minutiae, or any value greater or equal
+     * to <code>stopAt</code> if there are at least that many.
+     */
+    public static int matchingMinutiaeCount(List<int[]> probe, IntBuffer template, int offset, int count,
+                                            int centerRow, int centerCol, int rowTranslation, int colTranslation,
+                                            int rotation, int stopAt) {
+        double angleRad = Math.toRadians(rotation);
+        double cos = Math.cos(angleRad);
+        double sin = Math.sin(angleRad);
+        int maxDistance = Fingerprint.DISTANCE_THRESHOLD * Fingerprint.DISTANCE_THRESHOLD;
+        int matchingCount = 0;
+        for (int m2 = 0; m2 < count; m2++) {
+            int position = offset + m2 * STRIDE;
+            // same arithmetic as applyRotation then applyTranslation
+            int x = template.get(position + 1) - centerCol;
+            int y = centerRow - template.get(position);
+            double newX = (x * cos) - (y * sin);
+            double newY = (x * sin) + (y * cos);
+            int row = (int) Math.round((centerRow - newY)) - rowTranslation;
+            int col = (int) Math.round((newX + centerCol)) - colTranslation;
+            int orientation = (template.get(position + 2) + rotation) % 360;
+            int type = template.get(position + 3);
+            for (int[] m1 : probe) {
+                int rowDiff = m1[0] - row;
+                int colDiff = m1[1] - col;
+                if (rowDiff * rowDiff + colDiff * colDiff <= maxDistance
+                        && Math.abs(m1[2] - orientation) <= Fingerprint.ORIENTATION_THRESHOLD
+                        && sameType(m1, type)) {
+                    matchingCount++;
+                }
+            }
+            if (matchingCount >= stopAt) {
+                return matchingCount;
+            }
+        }
+        return matchingCount;
+    }
+
+    /**
+     * Same as {@link Fingerprint#sameType(int[], int[])} for a packed minutia
+     * of the given type.
+     */
+    static boolean sameType(int[] minutia, int type) {
+        return minutia.length < 4 || minutia[3] == 0 || type == 0 || minutia[3] == type;
+    }
+}
@@ -0,0 +1,281 @@
+package cs107;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Counters and latency histograms of the fingerprint pipeline.
+ * <p>
+ * {@link Helper} and {@link Fingerprint} report to this class the duration of
+ * every decode, thinning, extraction and comparison, together with the number
+ * of thinning iterations, the candidate pixels seen and minutiae kept by the
+ * extraction, and the alignments evaluated and early exits of the comparisons.
+ * Nothing is recorded until {@link #enable()} is called, and then recording
+ * only costs a few uncontended atomic increments per call.
+ * <p>
+ * The figures are available from {@link #snapshot()} and, once enabled, as the
+ * attributes of the JMX MBean {@link #OBJECT_NAME}.
+ */
+public final class PipelineMetrics {
+
+    /**
+     * The name of the MBean exposing the metrics.
+     */
+    public static final String OBJECT_NAME = "cs107:type=PipelineMetrics";
+
+    /**
+     * The timed stages.
+     */
+    public enum Stage {
+        DECODE, THIN, EXTRACT, MATCH
+    }
+
+    /**
+     * The counters.
+     */
+    public enum Counter {
+        THIN_ITERATIONS, EXTRACT_CANDIDATES, EXTRACT_KEPT, MATCH_ALIGNMENTS, MATCH_EARLY_EXITS
+    }
+
+    private static final Map<Stage, LatencyHistogram> LATENCIES = new EnumMap<>(Stage.class);
+    private static final Map<Counter, LongAdder> COUNTERS = new EnumMap<>(Counter.class);
+    private static volatile boolean enabled;
+    private static boolean registered;
+
+    static {
+        for (Stage stage : Stage.values()) {
+            LATENCIES.put(stage, new LatencyHistogram());
+        }
+        for (Counter counter : Counter.values()) {
+            COUNTERS.put(counter, new LongAdder());
+        }
+    }
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * Starts recording and registers the MBean on the platform MBean server.
+     */
+    public static synchronized void enable() {
+        if (!registered) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(new MetricsMBean(), new ObjectName(OBJECT_NAME));
+                registered = true;
+            } catch (JMException e) {
+                System.out.println(e);
+            }
+        }
+        enabled = true;
+    }
+
+    /**
+     * Stops recording. The figures recorded so far are kept.
+     */
+    public static void disable() {
+        enabled = false;
+    }
+
+    /**
+     * @return <code>true</code> if the pipeline is being recorded.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Forgets every recorded figure.
+     */
+    public static void reset() {
+        LATENCIES.values().forEach(LatencyHistogram::reset);
+        COUNTERS.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * Returns the start time to pass to the <code>record</code> methods.
+     *
+     * @return the current time in nanoseconds, or <code>0</code> when disabled.
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void recordDecode(long start) {
+        if (enabled) {
+            LATENCIES.get(Stage.DECODE).record(System.nanoTime() - start);
+        }
+    }
+
+    static void recordThin(long start, int iterations) {
+        if (enabled) {
+            LATENCIES.get(Stage.THIN).record(System.nanoTime() - start);
+            COUNTERS.get(Counter.THIN_ITERATIONS).add(iterations);
+        }
+    }
+
+    static void recordExtract(long start, int candidates, int kept) {
+        if (enabled) {
+            LATENCIES.get(Stage.EXTRACT).record(System.nanoTime() - start);
+            COUNTERS.get(Counter.EXTRACT_CANDIDATES).add(candidates);
+            COUNTERS.get(Counter.EXTRACT_KEPT).add(kept);
+        }
+    }
+
+    static void recordMatch(long start, int alignments, boolean earlyExit) {
+        if (enabled) {
+            LATENCIES.get(Stage.MATCH).record(System.nanoTime() - start);
+            COUNTERS.get(Counter.MATCH_ALIGNMENTS).add(alignments);
+            if (earlyExit) {
+                COUNTERS.get(Counter.MATCH_EARLY_EXITS).increment();
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the current figures.
+     */
+    public static Snapshot snapshot() {
+        Map<Stage, LatencyHistogram.Snapshot> latencies = new EnumMap<>(Stage.class);
+        LATENCIES.forEach((stage, histogram) -> latencies.put(stage, histogram.snapshot()));
+        Map<Counter, Long> counters = new EnumMap<>(Counter.class);
+        COUNTERS.forEach((counter, adder) -> counters.put(counter, adder.sum()));
+        return new Snapshot(latencies, counters);
+    }
+
+    /**
+     * An immutable copy of the metrics.
+     */
+    public static final class Snapshot {
+        private final Map<Stage, LatencyHistogram.Snapshot> latencies;
+        private final Map<Counter, Long> counters;
+
+        Snapshot(Map<Stage, LatencyHistogram.Snapshot> latencies, Map<Counter, Long> counters) {
+            this.latencies = latencies;
+            this.counters = counters;
+        }
+
+        /**
+         * @param stage the stage.
+         * @return the durations of the calls of the stage.
+         */
+        public LatencyHistogram.Snapshot latency(Stage stage) {
+            return latencies.get(stage);
+        }
+
+        /**
+         * @param counter the counter.
+         * @return the value of the counter.
+         */
+        public long counter(Counter counter) {
+            return counters.get(counter);
+        }
+
+        /**
+         * Flattens the snapshot into named values, as exposed through JMX.
+         *
+         * @return the values by attribute name, in a stable order.
+         */
+        public Map<String, Number> toMap() {
+            Map<String, Number> values = new LinkedHashMap<>();
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram.Snapshot latency = latency(stage);
+                String prefix = stage.name().toLowerCase();
+                values.put(prefix + "Count", latency.count());
+                values.put(prefix + "MeanMillis", latency.mean() / 1e6);
+                values.put(prefix + "P50Millis", latency.percentile(50) / 1e6);
+                values.put(prefix + "P99Millis", latency.percentile(99) / 1e6);
+                values.put(prefix + "P999Millis", latency.percentile(99.9) / 1e6);
+            }
+            for (Counter counter : Counter.values()) {
+                values.put(counter.name(), counter(counter));
+            }
+            return values;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Stage stage : Stage.values()) {
+                builder.append(String.format("%-8s %s%n", stage, latency(stage)));
+            }
+            for (Counter counter : Counter.values()) {
+                builder.append(String.format("%-19s %d%n", counter, counter(counter)));
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Exposes the values of {@link Snapshot#toMap()} as read-only attributes.
+     */
+    private static final class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = snapshot().toMap().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("The metrics are read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = snapshot().toMap();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if ("reset".equals(actionName)) {
+                reset();
+                return null;
+            }
+            throw new ReflectionException(new NoSuchMethodException(actionName), "Unknown operation " + actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            snapshot().toMap().forEach((name, value) -> attributes.add(new MBeanAttributeInfo(name,
+                    value.getClass().getName(), name, true, false, false)));
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Forgets every recorded figure", null,
+                    "void", MBeanOperationInfo.ACTION);
+            return new MBeanInfo(PipelineMetrics.class.getName(), "Fingerprint pipeline metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+        }
+    }
+}
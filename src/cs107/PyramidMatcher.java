@@ -0,0 +1,203 @@
+package cs107;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Two-level comparison of fingerprints, used by
+ * {@link Fingerprint#match(List, List, MatcherConfig)} when
+ * {@link MatcherConfig#pyramidCandidates} is positive.
+ * <p>
+ * The coarse level downsamples the first fingerprint into a grid of cells of
+ * {@link MatcherConfig#pyramidScale} pixels. Each cell records, as bits of a
+ * <code>long</code>, the types and orientation bins of the minutiae near it,
+ * already widened by the distance and orientation thresholds. Every anchor
+ * pair is then scored with a single rotation by looking up the cell of each
+ * transformed minutia of the second fingerprint, one lookup instead of a
+ * comparison with every minutia of the first one. The fine level runs the
+ * usual rotation search of {@link Fingerprint#matchingMinutiaeCount(List, List,
+ * int, int)} on the best {@link MatcherConfig#pyramidCandidates} anchor pairs
+ * only.
+ * <p>
+ * The coarse tolerances are looser than the exact ones, so a genuine alignment
+ * scores high at the coarse level, but a genuine pair can still be missed when
+ * more than the kept number of impostor alignments score higher.
+ */
+final class PyramidMatcher {
+
+    /**
+     * The narrowest orientation bin, which keeps the bins of both types within
+     * the 64 bits of a cell.
+     */
+    private static final int MIN_BIN_WIDTH = 12;
+
+    private PyramidMatcher() {
+    }
+
+    /**
+     * Computes the highest number of matching minutiae over the alignments of
+     * the best coarse anchor pairs.
+     *
+     * @param minutiae1  the list of minutiae of the first fingerprint.
+     * @param minutiae2  the list of minutiae of the second fingerprint.
+     * @param config     the parameters of the comparison.
+     * @param stopAt     the count at which the search can stop.
+     * @param alignments incremented by the number of full resolution
+     *                   alignments tried.
+     * @return the highest number of matching minutiae found, or the first one
+     * greater or equal to <code>stopAt</code>.
+     */
+    static int score(List<int[]> minutiae1, List<int[]> minutiae2, MatcherConfig config, int stopAt, int[] alignments) {
+        int bestCount = 0;
+        for (int pair : candidates(minutiae1, minutiae2, config)) {
+            int[] anchor1 = minutiae1.get(pair / minutiae2.size());
+            int[] anchor2 = minutiae2.get(pair % minutiae2.size());
+            int count = Fingerprint.searchRotation(minutiae1, minutiae2, anchor1[0], anchor1[1],
+                    anchor2[0] - anchor1[0], anchor2[1] - anchor1[1], anchor2[2] - anchor1[2], config, stopAt,
+                    alignments);
+            if (count >= stopAt) {
+                return count;
+            }
+            bestCount = Math.max(bestCount, count);
+        }
+        return bestCount;
+    }
+
+    /**
+     * Ranks the anchor pairs at the coarse level.
+     *
+     * @param minutiae1 the list of minutiae of the first fingerprint.
+     * @param minutiae2 the list of minutiae of the second fingerprint.
+     * @param config    the parameters of the comparison.
+     * @return the best {@link MatcherConfig#pyramidCandidates} anchor pairs,
+     * best first, each one as <code>m1 * minutiae2.size() + m2</code>.
+     */
+    static int[] candidates(List<int[]> minutiae1, List<int[]> minutiae2, MatcherConfig config) {
+        if (minutiae1.isEmpty() || minutiae2.isEmpty()) {
+            return new int[0];
+        }
+        CoarseGrid grid = new CoarseGrid(minutiae1, config);
+
+        // coarse score of every anchor pair in the high bits, its index in the low bits
+        long[] pairs = new long[minutiae1.size() * minutiae2.size()];
+        int pairCount = 0;
+        for (int m1 = 0; m1 < minutiae1.size(); m1++) {
+            int[] anchor1 = minutiae1.get(m1);
+            for (int m2 = 0; m2 < minutiae2.size(); m2++) {
+                int[] anchor2 = minutiae2.get(m2);
+                if (Fingerprint.sameType(anchor1, anchor2)) {
+                    long coarse = grid.count(minutiae2, anchor1, anchor2);
+                    pairs[pairCount++] = coarse << 32 | (long) m1 * minutiae2.size() + m2;
+                }
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+
+        int[] candidates = new int[Math.min(pairCount, config.pyramidCandidates)];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = (int) pairs[pairCount - 1 - i];
+        }
+        return candidates;
+    }
+
+    /**
+     * The first fingerprint downsampled into cells, each cell holding the
+     * types and orientations that match near it.
+     */
+    private static final class CoarseGrid {
+        private final int scale;
+        private final int binWidth;
+        private final int bins;
+        private final int top;
+        private final int left;
+        private final int rows;
+        private final int cols;
+        private final long[] cells;
+
+        CoarseGrid(List<int[]> minutiae, MatcherConfig config) {
+            scale = config.pyramidScale;
+            binWidth = Math.max(MIN_BIN_WIDTH, config.orientationThreshold);
+            bins = (360 + binWidth - 1) / binWidth;
+            int reach = (config.distanceThreshold + scale - 1) / scale;
+            int minRow = Integer.MAX_VALUE;
+            int minCol = Integer.MAX_VALUE;
+            int maxRow = Integer.MIN_VALUE;
+            int maxCol = Integer.MIN_VALUE;
+            for (int[] minutia : minutiae) {
+                minRow = Math.min(minRow, minutia[0]);
+                minCol = Math.min(minCol, minutia[1]);
+                maxRow = Math.max(maxRow, minutia[0]);
+                maxCol = Math.max(maxCol, minutia[1]);
+            }
+            top = Math.floorDiv(minRow, scale) - reach;
+            left = Math.floorDiv(minCol, scale) - reach;
+            rows = Math.floorDiv(maxRow, scale) + reach - top + 1;
+            cols = Math.floorDiv(maxCol, scale) + reach - left + 1;
+            cells = new long[rows * cols];
+
+            for (int[] minutia : minutiae) {
+                // a minutia matches the neighbouring orientation bins and cells
+                int bin = bin(minutia[2]);
+                long bits = 0;
+                for (int b = bin - 1; b <= bin + 1; b++) {
+                    bits |= typeBits(minutia) << Math.floorMod(b, bins);
+                }
+                int row = Math.floorDiv(minutia[0], scale) - top;
+                int col = Math.floorDiv(minutia[1], scale) - left;
+                for (int y = row - reach; y <= row + reach; y++) {
+                    for (int x = col - reach; x <= col + reach; x++) {
+                        cells[y * cols + x] |= bits;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Counts the minutiae of the second fingerprint that land on a matching
+         * cell once aligned on the anchor pair, with the same transformation as
+         * {@link Fingerprint#applyTransformation(int[], int, int, int, int, int)}.
+         */
+        int count(List<int[]> minutiae2, int[] anchor1, int[] anchor2) {
+            int centerRow = anchor1[0];
+            int centerCol = anchor1[1];
+            int rowTranslation = anchor2[0] - anchor1[0];
+            int colTranslation = anchor2[1] - anchor1[1];
+            int rotation = anchor2[2] - anchor1[2];
+            double angleRad = Math.toRadians(rotation);
+            double cos = Math.cos(angleRad);
+            double sin = Math.sin(angleRad);
+            int count = 0;
+            for (int[] minutia : minutiae2) {
+                int x = minutia[1] - centerCol;
+                int y = centerRow - minutia[0];
+                int row = (int) Math.round(centerRow - (x * sin + y * cos)) - rowTranslation;
+                int col = (int) Math.round(x * cos - y * sin + centerCol) - colTranslation;
+                int cellRow = Math.floorDiv(row, scale) - top;
+                int cellCol = Math.floorDiv(col, scale) - left;
+                if (cellRow >= 0 && cellRow < rows && cellCol >= 0 && cellCol < cols
+                        && (cells[cellRow * cols + cellCol] & typeBits(minutia) << bin(minutia[2] + rotation)) != 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private int bin(int angle) {
+            return Math.floorMod(angle, 360) / binWidth;
+        }
+
+        /**
+         * @return the bits of the types a minutia matches, for the first bin:
+         * bit 0 for ridge endings and bit <code>bins</code> for bifurcations.
+         */
+        private long typeBits(int[] minutia) {
+            int type = minutia.length > 3 ? minutia[3] : 0;
+            if (type == Fingerprint.RIDGE_ENDING) {
+                return 1L;
+            } else if (type == Fingerprint.BIFURCATION) {
+                return 1L << bins;
+            }
+            return 1L | 1L << bins;
+        }
+    }
+}
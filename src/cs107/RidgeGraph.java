@@ -0,0 +1,332 @@
+package cs107;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The skeleton of a fingerprint as a graph: the nodes are the pixels where
+ * the ridges do not simply go on (ridge endings, bifurcations and the rarer
+ * crossings), and the edges are the chains of pixels between them.
+ * <p>
+ * The graph is built in one pass over the skeleton followed by one
+ * breadth-first trace of every chain, each pixel being visited once. The
+ * minutiae are then read from the nodes, and the orientation of a minutia is
+ * computed from the pixels met by walking its edges, through the nodes they
+ * reach, until they leave the square of
+ * {@link Fingerprint#ORIENTATION_DISTANCE} around it. These are the pixels
+ * {@link Fingerprint#connectedPixels(boolean[][], int, int, int)} finds with a
+ * flood fill of the window, so the same regression gives the same
+ * orientation, except where a chain comes back into the window or touches
+ * another one: about 1% of the minutiae of the dataset.
+ * <p>
+ * The length of the edges and their end nodes make spurs easy to find: a
+ * short edge between a ridge ending and a bifurcation.
+ */
+public final class RidgeGraph {
+
+    private static final int[] NEIGHBOUR_ROWS = {-1, -1, 0, 1, 1, 1, 0, -1};
+    private static final int[] NEIGHBOUR_COLS = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    private final int height;
+    private final int width;
+    /**
+     * The row, column and number of transitions of each node.
+     */
+    private final List<int[]> nodes = new ArrayList<>();
+    /**
+     * The rows and columns of the pixels of each edge, interleaved, ordered by
+     * their distance to its first node.
+     */
+    private final List<int[]> edgePixels = new ArrayList<>();
+    /**
+     * The first and last nodes of each edge, <code>-1</code> if the chain
+     * stops without reaching a node.
+     */
+    private final List<int[]> edgeNodes = new ArrayList<>();
+    /**
+     * The edges of each node.
+     */
+    private final List<List<Integer>> incidentEdges = new ArrayList<>();
+    /**
+     * The node of each pixel, or <code>-1</code>.
+     */
+    private final int[] nodeAt;
+    /**
+     * The edge of each pixel that is neither white nor a node, or
+     * <code>-1</code> while it is not traced.
+     */
+    private final int[] edgeAt;
+
+    private RidgeGraph(boolean[][] skeleton) {
+        height = skeleton.length;
+        width = height == 0 ? 0 : skeleton[0].length;
+        nodeAt = new int[height * width];
+        edgeAt = new int[height * width];
+        Arrays.fill(nodeAt, -1);
+        Arrays.fill(edgeAt, -1);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                if (skeleton[row][col]
+                        && Fingerprint.transitions(Fingerprint.getNeighbours(skeleton, row, col)) != 2) {
+                    nodeAt[row * width + col] = nodes.size();
+                    nodes.add(new int[]{row, col,
+                            Fingerprint.transitions(Fingerprint.getNeighbours(skeleton, row, col))});
+                    incidentEdges.add(new ArrayList<>());
+                }
+            }
+        }
+        for (int node = 0; node < nodes.size(); node++) {
+            int row = nodes.get(node)[0];
+            int col = nodes.get(node)[1];
+            for (int k = 0; k < 8; k++) {
+                int y = row + NEIGHBOUR_ROWS[k];
+                int x = col + NEIGHBOUR_COLS[k];
+                if (!Fingerprint.getPixel(skeleton, y, x)) {
+                    continue;
+                }
+                int neighbourNode = nodeAt[y * width + x];
+                if (neighbourNode > node) {
+                    // adjacent nodes are joined by an edge without pixels
+                    addEdge(new int[0], node, neighbourNode);
+                } else if (neighbourNode < 0 && edgeAt[y * width + x] < 0) {
+                    trace(skeleton, node, y, x);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the graph of a skeleton.
+     *
+     * @param skeleton the thinned image.
+     * @return the ridge graph.
+     * @see Fingerprint#thin(boolean[][])
+     */
+    public static RidgeGraph of(boolean[][] skeleton) {
+        return new RidgeGraph(skeleton);
+    }
+
+    /**
+     * Collects the chain starting next to a node with a breadth-first search,
+     * so that the pixels are ordered by their distance to the node even where
+     * the chain makes corners, and finds the node at its other end.
+     */
+    private void trace(boolean[][] skeleton, int start, int row, int col) {
+        int edge = edgePixels.size();
+        int[] pixels = new int[16];
+        int[] depths = new int[8];
+        int length = 0;
+        pixels[length++] = row;
+        pixels[length++] = col;
+        edgeAt[row * width + col] = edge;
+        int end = -1;
+        boolean loop = false;
+        int startRow = nodes.get(start)[0];
+        int startCol = nodes.get(start)[1];
+        for (int head = 0; head < length; head += 2) {
+            int depth = depths[head / 2];
+            // the chain ends at the pixels next to a node, before it spreads to
+            // the other chains of the node
+            int node = adjacentNode(skeleton, pixels[head], pixels[head + 1], start);
+            if (node >= 0) {
+                end = node;
+                continue;
+            }
+            if (depth > 1 && Math.abs(pixels[head] - startRow) <= 1 && Math.abs(pixels[head + 1] - startCol) <= 1) {
+                loop = true;
+                continue;
+            }
+            for (int k = 0; k < 8; k++) {
+                int y = pixels[head] + NEIGHBOUR_ROWS[k];
+                int x = pixels[head + 1] + NEIGHBOUR_COLS[k];
+                if (!Fingerprint.getPixel(skeleton, y, x) || nodeAt[y * width + x] >= 0
+                        || edgeAt[y * width + x] >= 0) {
+                    continue;
+                }
+                // near the start, the pixels next to it belong to its other chains
+                if (depth <= 1 && Math.abs(y - startRow) <= 1 && Math.abs(x - startCol) <= 1) {
+                    continue;
+                }
+                if (length == pixels.length) {
+                    pixels = Arrays.copyOf(pixels, length * 2);
+                    depths = Arrays.copyOf(depths, length);
+                }
+                depths[length / 2] = depth + 1;
+                pixels[length++] = y;
+                pixels[length++] = x;
+                edgeAt[y * width + x] = edge;
+            }
+        }
+        addEdge(Arrays.copyOf(pixels, length), start, end < 0 && loop ? start : end);
+    }
+
+    /**
+     * @return a node next to the pixel other than the given one, or
+     * <code>-1</code>.
+     */
+    private int adjacentNode(boolean[][] skeleton, int row, int col, int excluded) {
+        for (int k = 0; k < 8; k++) {
+            int y = row + NEIGHBOUR_ROWS[k];
+            int x = col + NEIGHBOUR_COLS[k];
+            if (Fingerprint.getPixel(skeleton, y, x) && nodeAt[y * width + x] >= 0
+                    && nodeAt[y * width + x] != excluded) {
+                return nodeAt[y * width + x];
+            }
+        }
+        return -1;
+    }
+
+    private void addEdge(int[] pixels, int first, int last) {
+        int edge = edgePixels.size();
+        edgePixels.add(pixels);
+        edgeNodes.add(new int[]{first, last});
+        incidentEdges.get(first).add(edge);
+        if (last >= 0 && last != first) {
+            incidentEdges.get(last).add(edge);
+        }
+    }
+
+    /**
+     * @return the number of nodes.
+     */
+    public int nodeCount() {
+        return nodes.size();
+    }
+
+    /**
+     * @param node the index of the node.
+     * @return the row, the column and the number of transitions of the node.
+     */
+    public int[] node(int node) {
+        return nodes.get(node).clone();
+    }
+
+    /**
+     * @param node the index of the node.
+     * @return the number of edges of the node.
+     */
+    public int degree(int node) {
+        return incidentEdges.get(node).size();
+    }
+
+    /**
+     * @return the number of edges.
+     */
+    public int edgeCount() {
+        return edgePixels.size();
+    }
+
+    /**
+     * @param edge the index of the edge.
+     * @return the number of pixels of the edge, its nodes excluded.
+     */
+    public int edgeLength(int edge) {
+        return edgePixels.get(edge).length / 2;
+    }
+
+    /**
+     * @param edge the index of the edge.
+     * @return the first and the last node of the edge, the last one being
+     * <code>-1</code> if the chain stops without reaching a node.
+     */
+    public int[] edgeNodes(int edge) {
+        return edgeNodes.get(edge).clone();
+    }
+
+    /**
+     * Reads the minutiae from the nodes, as {@link Fingerprint#extract(boolean[][])}
+     * finds them.
+     *
+     * @return the list of all minutiae, represented as by
+     * {@link Fingerprint#extract(boolean[][])}.
+     */
+    public List<int[]> minutiae() {
+        ArrayList<int[]> minutiae = new ArrayList<>();
+        for (int node = 0; node < nodes.size(); node++) {
+            int[] position = nodes.get(node);
+            int type = position[2];
+            // extract skips the border of the image
+            if ((type == Fingerprint.RIDGE_ENDING || type == Fingerprint.BIFURCATION)
+                    && position[0] > 0 && position[0] < height - 1 && position[1] > 0 && position[1] < width - 1) {
+                minutiae.add(new int[]{position[0], position[1],
+                        orientation(node, Fingerprint.ORIENTATION_DISTANCE), type});
+            }
+        }
+        return minutiae;
+    }
+
+    /**
+     * Computes the orientation of a node from the pixels met by walking its
+     * edges within the square of the given distance around it.
+     *
+     * @param node     the index of the node.
+     * @param distance the distance to be considered in each direction.
+     * @return the orientation in degrees.
+     */
+    public int orientation(int node, int distance) {
+        int row = nodes.get(node)[0];
+        int col = nodes.get(node)[1];
+        ArrayList<Integer> pixels = new ArrayList<>();
+        boolean[] visitedNodes = new boolean[nodes.size()];
+        boolean[] visitedEdges = new boolean[edgePixels.size()];
+        int[] stack = {node};
+        int stackSize = 1;
+        visitedNodes[node] = true;
+        while (stackSize > 0) {
+            int current = stack[--stackSize];
+            pixels.add(nodes.get(current)[0]);
+            pixels.add(nodes.get(current)[1]);
+            for (int edge : incidentEdges.get(current)) {
+                if (visitedEdges[edge]) {
+                    continue;
+                }
+                visitedEdges[edge] = true;
+                int[] chain = edgePixels.get(edge);
+                boolean forward = edgeNodes.get(edge)[0] == current;
+                boolean inside = true;
+                for (int i = 0; i < chain.length / 2 && inside; i++) {
+                    int pixel = forward ? 2 * i : chain.length - 2 - 2 * i;
+                    inside = Math.abs(chain[pixel] - row) <= distance && Math.abs(chain[pixel + 1] - col) <= distance;
+                    if (inside) {
+                        pixels.add(chain[pixel]);
+                        pixels.add(chain[pixel + 1]);
+                    }
+                }
+                int other = forward ? edgeNodes.get(edge)[1] : edgeNodes.get(edge)[0];
+                if (inside && other >= 0 && !visitedNodes[other]
+                        && Math.abs(nodes.get(other)[0] - row) <= distance
+                        && Math.abs(nodes.get(other)[1] - col) <= distance) {
+                    visitedNodes[other] = true;
+                    if (stackSize == stack.length) {
+                        stack = Arrays.copyOf(stack, stackSize * 2);
+                    }
+                    stack[stackSize++] = other;
+                }
+            }
+        }
+
+        double sumXY = 0;
+        double sumSqrX = 0;
+        double sumSqrY = 0;
+        for (int i = 0; i < pixels.size(); i += 2) {
+            int x = Fingerprint.calculateX(pixels.get(i + 1), col);
+            int y = Fingerprint.calculateY(pixels.get(i), row);
+            sumXY += x * y;
+            sumSqrX += Math.pow(x, 2);
+            sumSqrY += Math.pow(y, 2);
+        }
+        double slope = Fingerprint.slope(sumXY, sumSqrX, sumSqrY);
+        int upSideCount = 0;
+        int downSideCount = 0;
+        for (int i = 0; i < pixels.size(); i += 2) {
+            if (Fingerprint.isInTheUpside(Fingerprint.calculateY(pixels.get(i), row),
+                    Fingerprint.calculateX(pixels.get(i + 1), col), slope)) {
+                upSideCount++;
+            } else {
+                downSideCount++;
+            }
+        }
+        return Fingerprint.degrees(Fingerprint.angle(slope, upSideCount, downSideCount));
+    }
+}
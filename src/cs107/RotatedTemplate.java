@@ -0,0 +1,288 @@
+package cs107;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A gallery template with the rotated coordinates of its minutiae computed
+ * once at enrollment, for every integer rotation up to {@link #maxRotation}
+ * degrees in each direction.
+ * <p>
+ * Rotating a minutia <code>p</code> around the anchor <code>c</code> of the
+ * probe gives <code>R(p - c) + c = Rp - Rc + c</code>. The term <code>Rp</code>
+ * only depends on the template and the angle, so it is stored, and aligning
+ * the template on an anchor only costs computing <code>Rc</code> once and then
+ * one subtraction and one rounding per coordinate, without trigonometry or
+ * any new minutia.
+ * <p>
+ * The rotated minutiae of each angle are also sorted by their row term. A
+ * probe minutia can then only overlap the minutiae of the band of rows within
+ * the distance threshold of it, found by a binary search, instead of every
+ * minutia of the template, which makes an alignment cost about the number of
+ * probe minutiae times the few minutiae of a band.
+ * <p>
+ * Memory budget: {@link #BYTES_PER_ROTATED_MINUTIA} bytes per minutia and
+ * stored angle, on top of the minutiae themselves. A template of 90 minutiae
+ * takes about 380 KB with every angle (<code>maxRotation</code> of 180) and
+ * about 70 KB with a <code>maxRotation</code> of 32, see
+ * {@link #memoryBudget(int, int)}. Alignments needing a rotation outside of the
+ * stored angles are skipped, which is how a smaller budget limits the rotation
+ * tolerated between the probe and the template.
+ * <p>
+ * With every angle stored, the results are those of
+ * {@link Fingerprint#match(List, List)} and
+ * {@link Fingerprint#matchScore(List, List)}, except that a coordinate falling
+ * within the precision of a <code>float</code> of half a pixel may be rounded
+ * the other way. Only the thresholds and the angle offset of a
+ * {@link MatcherConfig} are used: the rotation search is exhaustive.
+ */
+public final class RotatedTemplate {
+
+    /**
+     * The bytes used by the rotated coordinates of a minutia for one angle,
+     * and by its index in the order of the rows.
+     */
+    public static final int BYTES_PER_ROTATED_MINUTIA = 2 * Float.BYTES + Integer.BYTES;
+
+    private static final double[] COS = new double[360];
+    private static final double[] SIN = new double[360];
+
+    static {
+        for (int angle = 0; angle < 360; angle++) {
+            COS[angle] = Math.cos(Math.toRadians(angle));
+            SIN[angle] = Math.sin(Math.toRadians(angle));
+        }
+    }
+
+    /**
+     * The largest rotation stored in each direction, in degrees.
+     */
+    public final int maxRotation;
+
+    private final int[] packed;
+    private final int count;
+    /**
+     * For each angle between 0 and 359, the rotated column and row terms of
+     * the minutiae in increasing order of the row term, or <code>null</code>
+     * if the angle is not stored.
+     */
+    private final float[][] rotated = new float[360][];
+    /**
+     * For each stored angle, the index of each minutia of {@link #rotated} in
+     * the template.
+     */
+    private final int[][] order = new int[360][];
+
+    /**
+     * Precomputes every rotation of the template.
+     *
+     * @param minutiae the list of minutiae of the template.
+     */
+    public RotatedTemplate(List<int[]> minutiae) {
+        this(minutiae, 180);
+    }
+
+    /**
+     * Precomputes the rotations of the template up to the given angle.
+     *
+     * @param minutiae    the list of minutiae of the template.
+     * @param maxRotation the largest rotation stored in each direction, between
+     *                    0 and 180 degrees.
+     */
+    public RotatedTemplate(List<int[]> minutiae, int maxRotation) {
+        if (maxRotation < 0 || maxRotation > 180) {
+            throw new IllegalArgumentException("Rotation of " + maxRotation + " degrees out of [0, 180]");
+        }
+        this.maxRotation = maxRotation;
+        this.packed = PackedMinutiae.pack(minutiae);
+        this.count = minutiae.size();
+        for (int r = -maxRotation; r <= maxRotation; r++) {
+            int angle = Math.floorMod(r, 360);
+            if (rotated[angle] != null) {
+                continue;
+            }
+            float[] colTerms = new float[count];
+            float[] rowTerms = new float[count];
+            Integer[] sorted = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                int row = packed[i * PackedMinutiae.STRIDE];
+                int col = packed[i * PackedMinutiae.STRIDE + 1];
+                // same axes as applyRotation: x along the columns, y up the rows
+                colTerms[i] = (float) (col * COS[angle] + row * SIN[angle]);
+                rowTerms[i] = (float) (col * SIN[angle] - row * COS[angle]);
+                sorted[i] = i;
+            }
+            Arrays.sort(sorted, (i, j) -> Float.compare(rowTerms[i], rowTerms[j]));
+            float[] terms = new float[2 * count];
+            int[] indices = new int[count];
+            for (int k = 0; k < count; k++) {
+                terms[2 * k] = colTerms[sorted[k]];
+                terms[2 * k + 1] = rowTerms[sorted[k]];
+                indices[k] = sorted[k];
+            }
+            rotated[angle] = terms;
+            order[angle] = indices;
+        }
+    }
+
+    /**
+     * Returns the memory taken by the rotated coordinates of a template.
+     *
+     * @param minutiae    the number of minutiae of the template.
+     * @param maxRotation the largest rotation stored in each direction.
+     * @return the number of bytes, arrays headers excluded.
+     */
+    public static long memoryBudget(int minutiae, int maxRotation) {
+        return (long) Math.min(360, 2 * maxRotation + 1) * minutiae * BYTES_PER_ROTATED_MINUTIA;
+    }
+
+    /**
+     * @return the memory taken by the rotated coordinates of this template.
+     */
+    public long memoryBytes() {
+        return memoryBudget(count, maxRotation);
+    }
+
+    /**
+     * @return the number of minutiae of the template.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Compares the minutiae of a probe with the template, as
+     * {@link Fingerprint#match(List, List)} with the probe as the first
+     * fingerprint.
+     *
+     * @param probe the list of minutiae of the probe.
+     * @return <code>true</code> if they match and <code>false</code> otherwise.
+     */
+    public boolean match(List<int[]> probe) {
+        return match(probe, MatcherConfig.DEFAULT);
+    }
+
+    /**
+     * Compares the minutiae of a probe with the template.
+     *
+     * @param probe  the list of minutiae of the probe.
+     * @param config the thresholds and the angle offset to use.
+     * @return <code>true</code> if they match and <code>false</code> otherwise.
+     */
+    public boolean match(List<int[]> probe, MatcherConfig config) {
+        return search(probe, config, config.foundThreshold) >= config.foundThreshold;
+    }
+
+    /**
+     * Computes the score of a probe against the template, as
+     * {@link Fingerprint#matchScore(List, List)} with the probe as the first
+     * fingerprint.
+     *
+     * @param probe the list of minutiae of the probe.
+     * @return the highest number of matching minutiae over all the alignments.
+     */
+    public int score(List<int[]> probe) {
+        return score(probe, MatcherConfig.DEFAULT);
+    }
+
+    /**
+     * Computes the score of a probe against the template.
+     *
+     * @param probe  the list of minutiae of the probe.
+     * @param config the thresholds and the angle offset to use.
+     * @return the highest number of matching minutiae over all the alignments.
+     */
+    public int score(List<int[]> probe, MatcherConfig config) {
+        return search(probe, config, Integer.MAX_VALUE);
+    }
+
+    private int search(List<int[]> probe, MatcherConfig config, int stopAt) {
+        int bestCount = 0;
+        for (int[] anchor : probe) {
+            for (int m2 = 0; m2 < count; m2++) {
+                int position = m2 * PackedMinutiae.STRIDE;
+                if (!PackedMinutiae.sameType(anchor, packed[position + 3])) {
+                    continue;
+                }
+                int rowTranslation = packed[position] - anchor[0];
+                int colTranslation = packed[position + 1] - anchor[1];
+                int rotation = packed[position + 2] - anchor[2];
+                for (int r = rotation - config.angleOffset; r <= rotation + config.angleOffset; r++) {
+                    int matchCount = matchingMinutiaeCount(probe, anchor[0], anchor[1], rowTranslation,
+                            colTranslation, r, config, stopAt);
+                    if (matchCount >= stopAt) {
+                        return matchCount;
+                    }
+                    bestCount = Math.max(bestCount, matchCount);
+                }
+            }
+        }
+        return bestCount;
+    }
+
+    /**
+     * Counts the overlapping minutiae between the probe and the template once
+     * the transformation is applied to the template, as
+     * {@link PackedMinutiae#matchingMinutiaeCount} does.
+     *
+     * @return the number of overlapping minutiae, <code>0</code> if the
+     * rotation is not stored, or any value greater or equal to
+     * <code>stopAt</code> if there are at least that many.
+     */
+    int matchingMinutiaeCount(List<int[]> probe, int centerRow, int centerCol, int rowTranslation,
+                              int colTranslation, int rotation, MatcherConfig config, int stopAt) {
+        int angle = Math.floorMod(rotation, 360);
+        float[] terms = rotated[angle];
+        if (terms == null) {
+            return 0;
+        }
+        int[] indices = order[angle];
+        // R(p - c) + c, with the rotated center and the translation folded in
+        double colOffset = centerCol - (centerCol * COS[angle] + centerRow * SIN[angle]);
+        double rowOffset = centerRow + (centerCol * SIN[angle] - centerRow * COS[angle]) - rowTranslation;
+        int maxDistance = config.distanceThreshold * config.distanceThreshold;
+        int matchingCount = 0;
+        for (int[] m1 : probe) {
+            // the row of a template minutia is rowOffset - term rounded, so it
+            // can only be within the threshold of m1 if its term is in the band,
+            // widened by one pixel for the rounding
+            double highest = rowOffset - m1[0] + config.distanceThreshold + 1;
+            for (int k = firstAtLeast(terms, rowOffset - m1[0] - config.distanceThreshold - 1);
+                 k < count && terms[2 * k + 1] <= highest; k++) {
+                int row = (int) Math.round(rowOffset - terms[2 * k + 1]);
+                int col = (int) Math.round(terms[2 * k] + colOffset) - colTranslation;
+                int m2 = indices[k];
+                int orientation = (packed[m2 * PackedMinutiae.STRIDE + 2] + rotation) % 360;
+                int rowDiff = m1[0] - row;
+                int colDiff = m1[1] - col;
+                if (rowDiff * rowDiff + colDiff * colDiff <= maxDistance
+                        && Math.abs(m1[2] - orientation) <= config.orientationThreshold
+                        && PackedMinutiae.sameType(m1, packed[m2 * PackedMinutiae.STRIDE + 3])) {
+                    matchingCount++;
+                }
+            }
+            if (matchingCount >= stopAt) {
+                return matchingCount;
+            }
+        }
+        return matchingCount;
+    }
+
+    /**
+     * @return the position in the order of the rows of the first minutia whose
+     * row term is at least the given value, <code>count</code> if none is.
+     */
+    private int firstAtLeast(float[] terms, double value) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (terms[2 * middle + 1] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,195 @@
+package cs107;
+
+/**
+ * Separates the print from the blank background around it.
+ * <p>
+ * The binary image is divided into square blocks and a block belongs to the
+ * print when the variance of its pixels is high enough: ridges alternate black
+ * and white pixels, while the background is uniformly white (and smudges
+ * uniformly black). Isolated foreground blocks are then dropped and background
+ * blocks surrounded by the print are filled.
+ * <p>
+ * {@link Fingerprint#thin(boolean[][], Segmentation)} only works inside the
+ * bounding box of the foreground, and
+ * {@link Fingerprint#extract(boolean[][], Segmentation)} drops the minutiae too
+ * close to the background, where ridges end because the print ends.
+ */
+public final class Segmentation {
+
+    /**
+     * The default size of a block, in pixels.
+     */
+    public static final int BLOCK_SIZE = 8;
+
+    /**
+     * The default minimum variance of a foreground block. A block with a
+     * fraction <code>p</code> of black pixels has a variance of
+     * <code>p(1 - p)</code>, so 0.1 means between about 11% and 89% black.
+     */
+    public static final double MIN_VARIANCE = 0.1;
+
+    /**
+     * The default distance to the background under which minutiae are dropped.
+     */
+    public static final int BORDER_MARGIN = 8;
+
+    private final int blockSize;
+    private final int margin;
+    private final boolean[][] foreground;
+    private final int top;
+    private final int left;
+    private final int bottom;
+    private final int right;
+
+    private Segmentation(int blockSize, int margin, boolean[][] foreground, int height, int width) {
+        this.blockSize = blockSize;
+        this.margin = margin;
+        this.foreground = foreground;
+        int top = height;
+        int left = width;
+        int bottom = 0;
+        int right = 0;
+        for (int blockRow = 0; blockRow < foreground.length; blockRow++) {
+            for (int blockCol = 0; blockCol < foreground[0].length; blockCol++) {
+                if (foreground[blockRow][blockCol]) {
+                    top = Math.min(top, blockRow * blockSize);
+                    left = Math.min(left, blockCol * blockSize);
+                    bottom = Math.max(bottom, Math.min(height, (blockRow + 1) * blockSize));
+                    right = Math.max(right, Math.min(width, (blockCol + 1) * blockSize));
+                }
+            }
+        }
+        this.top = Math.min(top, bottom);
+        this.left = Math.min(left, right);
+        this.bottom = bottom;
+        this.right = right;
+    }
+
+    /**
+     * Segments an image with the default parameters.
+     *
+     * @param image array containing each pixel's boolean value.
+     * @return the segmentation of the image.
+     */
+    public static Segmentation segment(boolean[][] image) {
+        return segment(image, BLOCK_SIZE, MIN_VARIANCE, BORDER_MARGIN);
+    }
+
+    /**
+     * Segments an image.
+     *
+     * @param image       array containing each pixel's boolean value.
+     * @param blockSize   the size of a block, in pixels.
+     * @param minVariance the minimum variance of a foreground block.
+     * @param margin      the distance to the background under which minutiae are
+     *                    dropped.
+     * @return the segmentation of the image.
+     */
+    public static Segmentation segment(boolean[][] image, int blockSize, double minVariance, int margin) {
+        int height = image.length;
+        int width = image[0].length;
+        int blockRows = (height + blockSize - 1) / blockSize;
+        int blockCols = (width + blockSize - 1) / blockSize;
+        boolean[][] foreground = new boolean[blockRows][blockCols];
+        for (int blockRow = 0; blockRow < blockRows; blockRow++) {
+            for (int blockCol = 0; blockCol < blockCols; blockCol++) {
+                int black = 0;
+                int pixels = 0;
+                for (int row = blockRow * blockSize; row < Math.min(height, (blockRow + 1) * blockSize); row++) {
+                    for (int col = blockCol * blockSize; col < Math.min(width, (blockCol + 1) * blockSize); col++) {
+                        if (image[row][col]) {
+                            black++;
+                        }
+                        pixels++;
+                    }
+                }
+                double p = (double) black / pixels;
+                foreground[blockRow][blockCol] = p * (1 - p) >= minVariance;
+            }
+        }
+        return new Segmentation(blockSize, margin, clean(foreground), height, width);
+    }
+
+    /**
+     * Drops the foreground blocks with fewer than two foreground neighbours and
+     * fills the background blocks with more than five.
+     */
+    private static boolean[][] clean(boolean[][] blocks) {
+        boolean[][] cleaned = new boolean[blocks.length][blocks[0].length];
+        for (int row = 0; row < blocks.length; row++) {
+            for (int col = 0; col < blocks[0].length; col++) {
+                int neighbours = Fingerprint.blackNeighbours(Fingerprint.getNeighbours(blocks, row, col));
+                cleaned[row][col] = blocks[row][col] ? neighbours >= 2 : neighbours > 5;
+            }
+        }
+        return cleaned;
+    }
+
+    /**
+     * @return the first row of the bounding box of the print.
+     */
+    public int top() {
+        return top;
+    }
+
+    /**
+     * @return the first column of the bounding box of the print.
+     */
+    public int left() {
+        return left;
+    }
+
+    /**
+     * @return the row after the last one of the bounding box of the print.
+     */
+    public int bottom() {
+        return bottom;
+    }
+
+    /**
+     * @return the column after the last one of the bounding box of the print.
+     */
+    public int right() {
+        return right;
+    }
+
+    /**
+     * @return the fraction of the image area inside the bounding box.
+     */
+    public double coverage() {
+        int height = foreground.length * blockSize;
+        int width = foreground[0].length * blockSize;
+        return (double) (bottom - top) * (right - left) / ((double) height * width);
+    }
+
+    /**
+     * Returns <code>true</code> if the pixel belongs to the print.
+     *
+     * @param row the row of the pixel.
+     * @param col the column of the pixel.
+     * @return <code>true</code> if the block of the pixel is foreground,
+     * <code>false</code> otherwise or if the pixel is out of the image.
+     */
+    public boolean isForeground(int row, int col) {
+        return Fingerprint.getPixel(foreground, Math.floorDiv(row, blockSize), Math.floorDiv(col, blockSize));
+    }
+
+    /**
+     * Returns <code>true</code> if the pixel is in the print and far enough from
+     * the background for a minutia to be trusted.
+     *
+     * @param row the row of the pixel.
+     * @param col the column of the pixel.
+     * @return <code>true</code> if every pixel within the margin is foreground.
+     */
+    public boolean isInterior(int row, int col) {
+        for (int y = Math.floorDiv(row - margin, blockSize); y <= Math.floorDiv(row + margin, blockSize); y++) {
+            for (int x = Math.floorDiv(col - margin, blockSize); x <= Math.floorDiv(col + margin, blockSize); x++) {
+                if (!Fingerprint.getPixel(foreground, y, x)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
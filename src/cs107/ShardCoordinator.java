@@ -0,0 +1,298 @@
+package cs107;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Identifies a probe against a gallery partitioned across several
+ * {@link ShardWorker} processes.
+ * <p>
+ * The probe is sent to every shard at the same time and the best candidates of
+ * each shard are merged into the overall best candidates. A shard that fails or
+ * does not answer before the timeout is left out of the result and reported in
+ * {@link Result#failedShards}, so a slow shard delays an identification by at
+ * most the timeout.
+ */
+public final class ShardCoordinator implements AutoCloseable {
+
+    /**
+     * A gallery template and its score against the probe.
+     */
+    public static final class Candidate {
+        public final String id;
+        public final int score;
+
+        public Candidate(String id, int score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return id + " (" + score + ")";
+        }
+    }
+
+    /**
+     * The merged answer of the shards.
+     */
+    public static final class Result {
+        /**
+         * The best candidates, best first.
+         */
+        public final List<Candidate> candidates;
+        /**
+         * The indices of the shards that did not answer in time.
+         */
+        public final List<Integer> failedShards;
+
+        Result(List<Candidate> candidates, List<Integer> failedShards) {
+            this.candidates = candidates;
+            this.failedShards = failedShards;
+        }
+    }
+
+    private final List<InetSocketAddress> shards;
+    private final long timeoutMillis;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * Creates a coordinator.
+     *
+     * @param shards        the addresses of the shard workers.
+     * @param timeoutMillis the time a shard has to answer, in milliseconds.
+     */
+    public ShardCoordinator(List<InetSocketAddress> shards, long timeoutMillis) {
+        this.shards = new ArrayList<>(shards);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Finds the best candidates of the whole gallery for a probe.
+     *
+     * @param probe the list of minutiae of the probe.
+     * @param k     the maximum number of candidates.
+     * @return the <code>k</code> best candidates among the shards that answered.
+     * @throws InterruptedException if interrupted while waiting for the shards.
+     */
+    public Result identify(List<int[]> probe, int k) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        ArrayList<Future<List<Candidate>>> answers = new ArrayList<>();
+        for (InetSocketAddress shard : shards) {
+            answers.add(executor.submit(() -> ask(shard, probe, k)));
+        }
+
+        ArrayList<Candidate> candidates = new ArrayList<>();
+        ArrayList<Integer> failedShards = new ArrayList<>();
+        for (int i = 0; i < answers.size(); i++) {
+            try {
+                candidates.addAll(answers.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (ExecutionException | TimeoutException e) {
+                answers.get(i).cancel(true);
+                failedShards.add(i);
+            }
+        }
+        return new Result(best(candidates, k), failedShards);
+    }
+
+    private List<Candidate> ask(InetSocketAddress shard, List<int[]> probe, int k) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(shard, (int) timeoutMillis);
+            // the coordinator gives up at the deadline, do not keep the socket longer
+            socket.setSoTimeout((int) timeoutMillis);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            output.writeInt(k);
+            writeMinutiae(output, probe);
+            output.flush();
+
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            int count = input.readInt();
+            ArrayList<Candidate> candidates = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                candidates.add(new Candidate(input.readUTF(), input.readInt()));
+            }
+            return candidates;
+        }
+    }
+
+    /**
+     * Stops the threads waiting for the shards.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the best candidates, best first.
+     *
+     * @param candidates the candidates, which are not modified.
+     * @param k          the maximum number of candidates to keep.
+     * @return at most <code>k</code> candidates, ties broken by identifier.
+     */
+    static List<Candidate> best(List<Candidate> candidates, int k) {
+        ArrayList<Candidate> sorted = new ArrayList<>(candidates);
+        sorted.sort(Comparator.comparingInt((Candidate c) -> -c.score).thenComparing(c -> c.id));
+        return new ArrayList<>(sorted.subList(0, Math.min(k, sorted.size())));
+    }
+
+    static void writeMinutiae(DataOutputStream output, List<int[]> minutiae) throws IOException {
+        output.writeInt(minutiae.size());
+        for (int[] minutia : minutiae) {
+            for (int j = 0; j < PackedMinutiae.STRIDE; j++) {
+                output.writeInt(j < minutia.length ? minutia[j] : 0);
+            }
+        }
+    }
+
+    static List<int[]> readMinutiae(DataInputStream input) throws IOException {
+        int count = input.readInt();
+        ArrayList<int[]> minutiae = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int[] minutia = new int[PackedMinutiae.STRIDE];
+            for (int j = 0; j < minutia.length; j++) {
+                minutia[j] = input.readInt();
+            }
+            minutiae.add(minutia);
+        }
+        return minutiae;
+    }
+
+    /**
+     * Splits templates round-robin into gallery files, one per shard.
+     *
+     * @param templates the templates, by identifier.
+     * @param shards    the number of shards.
+     * @param prefix    the path prefix of the gallery files.
+     * @return the paths of the gallery files, or <code>null</code> on failure.
+     */
+    public static List<String> partition(Map<String, List<int[]>> templates, int shards, String prefix) {
+        ArrayList<Map<String, List<int[]>>> parts = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            parts.add(new LinkedHashMap<>());
+        }
+        int i = 0;
+        for (Map.Entry<String, List<int[]>> entry : templates.entrySet()) {
+            parts.get(i++ % shards).put(entry.getKey(), entry.getValue());
+        }
+        ArrayList<String> paths = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            String path = prefix + shard + ".fpg";
+            if (!MappedGallery.write(path, parts.get(shard))) {
+                return null;
+            }
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    /**
+     * Starts one {@link ShardWorker} JVM per gallery file, with the classpath of
+     * the current JVM, and waits until they all accept requests. The output of
+     * the workers is printed on the standard output of this JVM.
+     *
+     * @param galleries the gallery files.
+     * @param basePort  the port of the first worker, the next ones using the
+     *                  following ports.
+     * @return the worker processes.
+     * @throws IOException if a worker cannot be started.
+     */
+    public static List<Process> launch(List<String> galleries, int basePort) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ArrayList<Process> processes = new ArrayList<>();
+        for (int i = 0; i < galleries.size(); i++) {
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    ShardWorker.class.getName(), galleries.get(i), String.valueOf(basePort + i))
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start());
+        }
+        for (int i = 0; i < processes.size(); i++) {
+            BufferedReader output = new BufferedReader(new InputStreamReader(processes.get(i).getInputStream()));
+            String line;
+            while ((line = output.readLine()) != null && !line.equals(ShardWorker.READY)) {
+                System.out.println(line);
+            }
+            if (line == null) {
+                processes.forEach(Process::destroy);
+                throw new IOException("A shard worker exited before accepting requests");
+            }
+            // keep reading, or a worker printing errors would block on a full pipe
+            Thread echo = new Thread(() -> echo(output), "shard-output-" + i);
+            echo.setDaemon(true);
+            echo.start();
+        }
+        return processes;
+    }
+
+    /**
+     * Prints the output of a worker until it exits.
+     */
+    private static void echo(BufferedReader output) {
+        try (output) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                System.out.println(line);
+            }
+        } catch (IOException e) {
+            // the worker was destroyed
+        }
+    }
+
+    /**
+     * Enrolls the given images, spreads them over worker processes and
+     * identifies a probe against them.
+     *
+     * @param args the number of shards, the probe image and the gallery images.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.out.println("Usage: ShardCoordinator <shards> <probe image> <gallery image>...");
+            return;
+        }
+        int shards = Integer.parseInt(args[0]);
+        Map<String, List<int[]>> templates = new LinkedHashMap<>();
+        for (int i = 2; i < args.length; i++) {
+            templates.put(args[i], Fingerprint.extract(Fingerprint.thin(Helper.readBinary(args[i]))));
+        }
+        List<String> galleries = partition(templates, shards, "shard_");
+        if (galleries == null) {
+            return;
+        }
+
+        int basePort = 9100;
+        List<Process> processes = launch(galleries, basePort);
+        ArrayList<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), basePort + i));
+        }
+        List<int[]> probe = Fingerprint.extract(Fingerprint.thin(Helper.readBinary(args[1])));
+        try (ShardCoordinator coordinator = new ShardCoordinator(addresses, 60000)) {
+            long start = System.nanoTime();
+            Result result = coordinator.identify(probe, 5);
+            System.out.println("identified in " + (System.nanoTime() - start) / 1000000 + " ms");
+            System.out.println("candidates: " + result.candidates);
+            System.out.println("failed shards: " + result.failedShards);
+        } finally {
+            processes.forEach(Process::destroy);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package cs107;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A process holding one shard of the gallery and answering identification
+ * requests from a {@link ShardCoordinator} over a localhost socket.
+ * <p>
+ * A request is made of the number <code>k</code> of candidates wanted, the
+ * number of minutiae of the probe and, for each minutia, its row, column,
+ * angle and type, all as ints. The answer is the number of candidates
+ * followed by, for each candidate, its identifier (as written by
+ * {@link DataOutputStream#writeUTF(String)}) and its score, best first. A
+ * connection may carry several requests one after the other.
+ */
+public final class ShardWorker {
+
+    /**
+     * The line printed on the standard output once the shard accepts requests.
+     */
+    public static final String READY = "ready";
+
+    private final String[] ids;
+    private final OffHeapTemplateStore store = new OffHeapTemplateStore();
+
+    /**
+     * Loads a shard in memory.
+     *
+     * @param gallery the gallery holding the templates of the shard.
+     */
+    public ShardWorker(MappedGallery gallery) {
+        ids = new String[gallery.size()];
+        for (int i = 0; i < gallery.size(); i++) {
+            ids[i] = gallery.id(i);
+            store.add(gallery.minutiae(i));
+        }
+    }
+
+    /**
+     * Finds the best candidates of the shard for a probe.
+     *
+     * @param probe the list of minutiae of the probe.
+     * @param k     the maximum number of candidates.
+     * @return the <code>k</code> best candidates, best first.
+     */
+    public List<ShardCoordinator.Candidate> identify(List<int[]> probe, int k) {
+        ArrayList<ShardCoordinator.Candidate> candidates = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            candidates.add(new ShardCoordinator.Candidate(ids[i], store.score(probe, i)));
+        }
+        return ShardCoordinator.best(candidates, k);
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (true) {
+                int k;
+                try {
+                    k = input.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                List<int[]> probe = ShardCoordinator.readMinutiae(input);
+                List<ShardCoordinator.Candidate> candidates = identify(probe, k);
+                output.writeInt(candidates.size());
+                for (ShardCoordinator.Candidate candidate : candidates) {
+                    output.writeUTF(candidate.id);
+                    output.writeInt(candidate.score);
+                }
+                output.flush();
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Serves a shard until the process is killed.
+     *
+     * @param args the gallery file of the shard and the port to listen on.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: ShardWorker <gallery file> <port>");
+            return;
+        }
+        MappedGallery gallery = MappedGallery.open(args[0]);
+        if (gallery == null) {
+            System.exit(1);
+        }
+        ShardWorker worker = new ShardWorker(gallery);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (ServerSocket server = new ServerSocket(Integer.parseInt(args[1]), 50, InetAddress.getLoopbackAddress())) {
+            System.out.println(READY);
+            while (true) {
+                Socket socket = server.accept();
+                executor.execute(() -> worker.serve(socket));
+            }
+        }
+    }
+}
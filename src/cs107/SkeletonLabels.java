@@ -0,0 +1,251 @@
+package cs107;
+
+import java.util.Arrays;
+
+/**
+ * The connected components of a skeleton, labelled once for the whole image.
+ * <p>
+ * {@link Fingerprint#connectedPixels(boolean[][], int, int, int)} finds the
+ * pixels connected to a minutia by sweeping the image until nothing changes,
+ * for every minutia, although the connectivity of the skeleton is the same for
+ * all of them. The labelling is a single pass with a union-find over the
+ * pixels, in time linear in the size of the image, and its cost is shared by
+ * every minutia of the image.
+ * <p>
+ * Two black pixels are connected when one is among the neighbours of the
+ * other, as returned by {@link Fingerprint#getNeighbours(boolean[][], int, int)}
+ * (8-connectivity). The connected pixels of a minutia are its component
+ * clipped to the window. Pixels of the component can only be disconnected
+ * inside the window when the component leaves it, so only then are they
+ * searched again within the window.
+ */
+public final class SkeletonLabels {
+
+    private static final int[] NEIGHBOUR_ROWS = {-1, -1, 0, 1, 1, 1, 0, -1};
+    private static final int[] NEIGHBOUR_COLS = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    private final int height;
+    private final int width;
+    /**
+     * The component of each pixel as <code>row * width + col</code>, or
+     * <code>-1</code> for the white pixels.
+     */
+    private final int[] labels;
+    /**
+     * The smallest row, smallest column, largest row and largest column of each
+     * component.
+     */
+    private final int[] bounds;
+    private final int count;
+
+    private SkeletonLabels(int height, int width, int[] labels, int[] bounds, int count) {
+        this.height = height;
+        this.width = width;
+        this.labels = labels;
+        this.bounds = bounds;
+        this.count = count;
+    }
+
+    /**
+     * Labels the connected components of an image.
+     *
+     * @param image array containing each pixel's boolean value.
+     * @return the labels of the image.
+     */
+    public static SkeletonLabels of(boolean[][] image) {
+        int height = image.length;
+        int width = height == 0 ? 0 : image[0].length;
+        return of(image, new int[height * width]);
+    }
+
+    /**
+     * Labels the connected components of an image, with the union-find in the
+     * pixel buffer of the given workspace.
+     *
+     * @param image     array containing each pixel's boolean value.
+     * @param workspace the buffers to use.
+     * @return the labels of the image.
+     */
+    public static SkeletonLabels of(boolean[][] image, Workspace workspace) {
+        int height = image.length;
+        int width = height == 0 ? 0 : image[0].length;
+        return of(image, workspace.pixels(height * width));
+    }
+
+    private static SkeletonLabels of(boolean[][] image, int[] parents) {
+        int height = image.length;
+        int width = height == 0 ? 0 : image[0].length;
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int pixel = row * width + col;
+                if (!image[row][col]) {
+                    parents[pixel] = -1;
+                    continue;
+                }
+                parents[pixel] = pixel;
+                // the neighbours already visited: up-left, up, up-right and left
+                if (Fingerprint.getPixel(image, row - 1, col - 1)) {
+                    union(parents, pixel, pixel - width - 1);
+                }
+                if (Fingerprint.getPixel(image, row - 1, col)) {
+                    union(parents, pixel, pixel - width);
+                }
+                if (Fingerprint.getPixel(image, row - 1, col + 1)) {
+                    union(parents, pixel, pixel - width + 1);
+                }
+                if (Fingerprint.getPixel(image, row, col - 1)) {
+                    union(parents, pixel, pixel - 1);
+                }
+            }
+        }
+
+        // a root is the first pixel of its component, so it is numbered before
+        // the other pixels of the component are met
+        int[] labels = new int[height * width];
+        int[] bounds = new int[64];
+        int count = 0;
+        for (int pixel = 0; pixel < labels.length; pixel++) {
+            if (parents[pixel] < 0) {
+                labels[pixel] = -1;
+                continue;
+            }
+            int root = find(parents, pixel);
+            int row = pixel / width;
+            int col = pixel % width;
+            if (root == pixel) {
+                if (4 * count + 4 > bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                labels[pixel] = count;
+                bounds[4 * count] = row;
+                bounds[4 * count + 1] = col;
+                bounds[4 * count + 2] = row;
+                bounds[4 * count + 3] = col;
+                count++;
+                continue;
+            }
+            int label = labels[root];
+            labels[pixel] = label;
+            bounds[4 * label + 1] = Math.min(bounds[4 * label + 1], col);
+            bounds[4 * label + 2] = row;
+            bounds[4 * label + 3] = Math.max(bounds[4 * label + 3], col);
+        }
+        return new SkeletonLabels(height, width, labels, Arrays.copyOf(bounds, 4 * count), count);
+    }
+
+    /**
+     * Finds the root of a pixel, halving the path on the way.
+     */
+    private static int find(int[] parents, int pixel) {
+        while (parents[pixel] != pixel) {
+            parents[pixel] = parents[parents[pixel]];
+            pixel = parents[pixel];
+        }
+        return pixel;
+    }
+
+    /**
+     * Joins the components of two pixels under the smaller root, so that the
+     * root of a component is its first pixel.
+     */
+    private static void union(int[] parents, int pixel1, int pixel2) {
+        int root1 = find(parents, pixel1);
+        int root2 = find(parents, pixel2);
+        if (root1 < root2) {
+            parents[root2] = root1;
+        } else if (root2 < root1) {
+            parents[root1] = root2;
+        }
+    }
+
+    /**
+     * @return the number of connected components.
+     */
+    public int componentCount() {
+        return count;
+    }
+
+    /**
+     * Returns the component of a pixel.
+     *
+     * @param row the row of the pixel.
+     * @param col the column of the pixel.
+     * @return the label of the component, between 0 and
+     * {@link #componentCount()}, or <code>-1</code> if the pixel is white or
+     * out of the image.
+     */
+    public int label(int row, int col) {
+        if (row < 0 || row >= height || col < 0 || col >= width) {
+            return -1;
+        }
+        return labels[row * width + col];
+    }
+
+    /**
+     * Computes all pixels that are connected to the pixel at coordinate
+     * <code>(row, col)</code> and within the given distance of the pixel, as
+     * {@link Fingerprint#connectedPixels(boolean[][], int, int, int)} does.
+     *
+     * @param row      the first coordinate of the pixel of interest.
+     * @param col      the second coordinate of the pixel of interest.
+     * @param distance the maximum distance at which a pixel is considered.
+     * @return An array where <code>true</code> means that the pixel is within
+     * <code>distance</code> and connected to the pixel at
+     * <code>(row, col)</code>.
+     */
+    public boolean[][] connectedPixels(int row, int col, int distance) {
+        return connectedPixels(row, col, distance, new boolean[height][width]);
+    }
+
+    /**
+     * Marks the pixels connected to the pixel at coordinate
+     * <code>(row, col)</code> within the given distance, as
+     * {@link #connectedPixels(int, int, int)} does, in the given image.
+     *
+     * @param row       the first coordinate of the pixel of interest.
+     * @param col       the second coordinate of the pixel of interest.
+     * @param distance  the maximum distance at which a pixel is considered.
+     * @param connected a white image at least as large as the labelled one.
+     *                  Only the pixels within the distance are written.
+     * @return <code>connected</code>.
+     */
+    public boolean[][] connectedPixels(int row, int col, int distance, boolean[][] connected) {
+        connected[row][col] = true;
+        int top = Math.max(row - distance, 0);
+        int left = Math.max(col - distance, 0);
+        int bottom = Math.min(row + distance, height - 1);
+        int right = Math.min(col + distance, width - 1);
+        int label = labels[row * width + col];
+        if (label >= 0 && bounds[4 * label] >= top && bounds[4 * label + 1] >= left
+                && bounds[4 * label + 2] <= bottom && bounds[4 * label + 3] <= right) {
+            // the whole component is in the window
+            for (int y = bounds[4 * label]; y <= bounds[4 * label + 2]; y++) {
+                for (int x = bounds[4 * label + 1]; x <= bounds[4 * label + 3]; x++) {
+                    connected[y][x] = labels[y * width + x] == label;
+                }
+            }
+            return connected;
+        }
+
+        // the component leaves the window, or the pixel is white: search within
+        // the window, from pixel to neighbour
+        int side = 2 * distance + 1;
+        int[] queue = new int[2 * side * side];
+        int tail = 0;
+        queue[tail++] = row;
+        queue[tail++] = col;
+        for (int head = 0; head < tail; head += 2) {
+            for (int k = 0; k < 8; k++) {
+                int y = queue[head] + NEIGHBOUR_ROWS[k];
+                int x = queue[head + 1] + NEIGHBOUR_COLS[k];
+                if (y >= top && y <= bottom && x >= left && x <= right && !connected[y][x]
+                        && labels[y * width + x] >= 0 && (label < 0 || labels[y * width + x] == label)) {
+                    connected[y][x] = true;
+                    queue[tail++] = y;
+                    queue[tail++] = x;
+                }
+            }
+        }
+        return connected;
+    }
+}
@@ -0,0 +1,307 @@
+package cs107;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A binary image stored as the list of its black pixels, with a bitmap for
+ * neighbour lookups.
+ * <p>
+ * After binarization only a small fraction of the pixels are ridges, and after
+ * thinning even fewer. {@link #thin()}, {@link #extract()} and
+ * {@link #computeOrientation(int, int, int)} only visit the black pixels, so
+ * their cost grows with the length of the ridges instead of the area of the
+ * image. They give the same results as {@link Fingerprint#thin(boolean[][])},
+ * {@link Fingerprint#extract(boolean[][])} and
+ * {@link Fingerprint#computeOrientation(boolean[][], int, int, int)}.
+ * <p>
+ * The neighbours of a pixel are handled as an 8-bit mask, bit <code>k</code>
+ * being neighbour <code>k</code> in the order of
+ * {@link Fingerprint#getNeighbours(boolean[][], int, int)}.
+ */
+public final class SparseImage {
+
+    private static final int[] NEIGHBOUR_ROWS = {-1, -1, 0, 1, 1, 1, 0, -1};
+    private static final int[] NEIGHBOUR_COLS = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    /**
+     * The number of transitions of each neighbour mask.
+     */
+    private static final int[] TRANSITIONS = new int[256];
+
+    static {
+        for (int mask = 0; mask < 256; mask++) {
+            TRANSITIONS[mask] = Fingerprint.transitions(toNeighbours(mask));
+        }
+    }
+
+    private final int height;
+    private final int width;
+    private final long[] bits;
+    /**
+     * The black pixels as <code>row * width + col</code>, in increasing order.
+     */
+    private int[] pixels;
+    private int size;
+
+    private SparseImage(int height, int width, long[] bits, int[] pixels, int size) {
+        this.height = height;
+        this.width = width;
+        this.bits = bits;
+        this.pixels = pixels;
+        this.size = size;
+    }
+
+    /**
+     * Collects the black pixels of an image.
+     *
+     * @param image array containing each pixel's boolean value.
+     * @return the sparse copy of the image.
+     */
+    public static SparseImage of(boolean[][] image) {
+        int height = image.length;
+        int width = height == 0 ? 0 : image[0].length;
+        long[] bits = new long[(height * width + 63) / 64];
+        int[] pixels = new int[64];
+        int size = 0;
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                if (image[row][col]) {
+                    int pixel = row * width + col;
+                    bits[pixel >>> 6] |= 1L << pixel;
+                    if (size == pixels.length) {
+                        pixels = Arrays.copyOf(pixels, size * 2);
+                    }
+                    pixels[size++] = pixel;
+                }
+            }
+        }
+        return new SparseImage(height, width, bits, pixels, size);
+    }
+
+    /**
+     * @return the image as an array of pixels.
+     */
+    public boolean[][] toArray() {
+        boolean[][] image = new boolean[height][width];
+        for (int i = 0; i < size; i++) {
+            image[pixels[i] / width][pixels[i] % width] = true;
+        }
+        return image;
+    }
+
+    /**
+     * @return the number of rows of the image.
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * @return the number of columns of the image.
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * @return the number of black pixels.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of a pixel.
+     *
+     * @param row the row of the pixel.
+     * @param col the column of the pixel.
+     * @return <code>true</code> if the pixel is black, <code>false</code> if it
+     * is white or out of the image.
+     */
+    public boolean get(int row, int col) {
+        if (row < 0 || row >= height || col < 0 || col >= width) {
+            return false;
+        }
+        int pixel = row * width + col;
+        return (bits[pixel >>> 6] & 1L << pixel) != 0;
+    }
+
+    /**
+     * Computes the skeleton of the image, as
+     * {@link Fingerprint#thin(boolean[][])} does.
+     *
+     * @return the skeleton.
+     */
+    public SparseImage thin() {
+        SparseImage image = new SparseImage(height, width, bits.clone(), Arrays.copyOf(pixels, size), size);
+        int[] removed = new int[size];
+        boolean changed;
+        do {
+            // both steps always run, as in Fingerprint.thin
+            changed = image.thinningStep(0, removed);
+            changed |= image.thinningStep(1, removed);
+        } while (changed);
+        return image;
+    }
+
+    /**
+     * Removes the pixels that the given step of the thinning removes, deciding
+     * on the image as it was before the step.
+     *
+     * @return <code>true</code> if a pixel was removed.
+     */
+    private boolean thinningStep(int step, int[] removed) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int pixel = pixels[i];
+            if (isRemovable(neighbourMask(pixel / width, pixel % width), step)) {
+                removed[count++] = pixel;
+            }
+        }
+        if (count == 0) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            bits[removed[i] >>> 6] &= ~(1L << removed[i]);
+        }
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if ((bits[pixels[i] >>> 6] & 1L << pixels[i]) != 0) {
+                pixels[kept++] = pixels[i];
+            }
+        }
+        size = kept;
+        return true;
+    }
+
+    /**
+     * The criteria of {@link Fingerprint#thinningStep(boolean[][], int)} for a
+     * black pixel with the given neighbours.
+     */
+    private static boolean isRemovable(int mask, int step) {
+        int blackNeighbours = Integer.bitCount(mask);
+        if (blackNeighbours < 2 || blackNeighbours > 6 || TRANSITIONS[mask] != 1) {
+            return false;
+        }
+        if (step == 0) {
+            return (mask & 0b10101) != 0b10101 && (mask & 0b1010100) != 0b1010100;
+        }
+        return (mask & 0b1000101) != 0b1000101 && (mask & 0b1010001) != 0b1010001;
+    }
+
+    /**
+     * Extracts the minutiae of a thinned image, as
+     * {@link Fingerprint#extract(boolean[][])} does.
+     *
+     * @return the list of all minutiae, represented as by
+     * {@link Fingerprint#extract(boolean[][])}.
+     */
+    public List<int[]> extract() {
+        ArrayList<int[]> minutiae = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int row = pixels[i] / width;
+            int col = pixels[i] % width;
+            if (row < 1 || row >= height - 1 || col < 1 || col >= width - 1) {
+                continue;
+            }
+            int transitions = TRANSITIONS[neighbourMask(row, col)];
+            if (transitions == Fingerprint.RIDGE_ENDING || transitions == Fingerprint.BIFURCATION) {
+                int orientation = computeOrientation(row, col, Fingerprint.ORIENTATION_DISTANCE);
+                minutiae.add(new int[]{row, col, orientation, transitions});
+            }
+        }
+        return minutiae;
+    }
+
+    /**
+     * Computes the orientation of the minutia at the given coordinates, as
+     * {@link Fingerprint#computeOrientation(boolean[][], int, int, int)} does,
+     * from the connected pixels only.
+     *
+     * @param row      the row of the minutia.
+     * @param col      the column of the minutia.
+     * @param distance the distance to be considered in each direction.
+     * @return the orientation in degrees.
+     */
+    public int computeOrientation(int row, int col, int distance) {
+        int[] connected = connectedPixels(row, col, distance);
+        double sumXY = 0;
+        double sumSqrX = 0;
+        double sumSqrY = 0;
+        for (int i = 0; i < connected.length; i += 2) {
+            int x = Fingerprint.calculateX(connected[i + 1], col);
+            int y = Fingerprint.calculateY(connected[i], row);
+            sumXY += x * y;
+            sumSqrX += Math.pow(x, 2);
+            sumSqrY += Math.pow(y, 2);
+        }
+        double slope = Fingerprint.slope(sumXY, sumSqrX, sumSqrY);
+        int upSideCount = 0;
+        int downSideCount = 0;
+        for (int i = 0; i < connected.length; i += 2) {
+            if (Fingerprint.isInTheUpside(Fingerprint.calculateY(connected[i], row),
+                    Fingerprint.calculateX(connected[i + 1], col), slope)) {
+                upSideCount++;
+            } else {
+                downSideCount++;
+            }
+        }
+        return Fingerprint.degrees(Fingerprint.angle(slope, upSideCount, downSideCount));
+    }
+
+    /**
+     * Finds the pixels connected to the given one within the square of the given
+     * distance, as {@link Fingerprint#connectedPixels(boolean[][], int, int, int)}
+     * does, with a breadth-first search.
+     *
+     * @return the rows and columns of the connected pixels, interleaved.
+     */
+    int[] connectedPixels(int row, int col, int distance) {
+        int side = 2 * distance + 1;
+        boolean[] visited = new boolean[side * side];
+        int[] queue = new int[2 * side * side];
+        int tail = 0;
+        queue[tail++] = row;
+        queue[tail++] = col;
+        visited[distance * side + distance] = true;
+        for (int head = 0; head < tail; head += 2) {
+            for (int k = 0; k < 8; k++) {
+                int y = queue[head] + NEIGHBOUR_ROWS[k];
+                int x = queue[head + 1] + NEIGHBOUR_COLS[k];
+                int windowY = y - row + distance;
+                int windowX = x - col + distance;
+                if (windowY >= 0 && windowY < side && windowX >= 0 && windowX < side
+                        && !visited[windowY * side + windowX] && get(y, x)) {
+                    visited[windowY * side + windowX] = true;
+                    queue[tail++] = y;
+                    queue[tail++] = x;
+                }
+            }
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+    /**
+     * @return the neighbours of the pixel as a mask, bit <code>k</code> being
+     * neighbour <code>k</code>.
+     */
+    private int neighbourMask(int row, int col) {
+        int mask = 0;
+        for (int k = 0; k < 8; k++) {
+            if (get(row + NEIGHBOUR_ROWS[k], col + NEIGHBOUR_COLS[k])) {
+                mask |= 1 << k;
+            }
+        }
+        return mask;
+    }
+
+    private static boolean[] toNeighbours(int mask) {
+        boolean[] neighbours = new boolean[8];
+        for (int k = 0; k < 8; k++) {
+            neighbours[k] = (mask & 1 << k) != 0;
+        }
+        return neighbours;
+    }
+}
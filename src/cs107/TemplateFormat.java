@@ -0,0 +1,220 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compact binary encoding of minutiae templates.
+ * <p>
+ * A template file is laid out as follows:
+ * <ul>
+ * <li>the magic number {@link #TEMPLATE_MAGIC} (4 bytes),</li>
+ * <li>the format version {@link #VERSION} (1 byte),</li>
+ * <li>the encoded template.</li>
+ * </ul>
+ * An encoded template starts with the number of minutiae as a varint. The
+ * minutiae follow sorted by row then column, each one stored as the zigzag
+ * varint delta of its row and column with the previous minutia, the zigzag
+ * varint of its angle and, since version 2, the varint of its type
+ * (<code>0</code> when unknown). A typical minutia takes 4 to 5 bytes instead
+ * of the 16 bytes of an <code>int[4]</code>.
+ * <p>
+ * Version 1 templates, without types, can still be read: their minutiae are
+ * decoded as <code>{row, col, angle}</code> and match minutiae of any type.
+ *
+ * @see MappedGallery
+ */
+public final class TemplateFormat {
+
+    /**
+     * The magic number at the start of every template file ("FPT1").
+     */
+    public static final int TEMPLATE_MAGIC = 0x46505431;
+
+    /**
+     * The current version of the encoding.
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * The oldest version of the encoding that can still be decoded.
+     */
+    public static final int MIN_VERSION = 1;
+
+    private TemplateFormat() {
+    }
+
+    /**
+     * Encodes the minutiae into the compact representation, without file header.
+     *
+     * @param minutiae the list of minutiae.
+     * @return the encoded template.
+     */
+    public static byte[] encode(List<int[]> minutiae) {
+        int[][] sorted = minutiae.toArray(new int[0][]);
+        Arrays.sort(sorted, Comparator.<int[]>comparingInt(m -> m[0]).thenComparingInt(m -> m[1]));
+
+        // 5 bytes is the longest varint for an int
+        ByteBuffer buffer = ByteBuffer.allocate(5 + sorted.length * 20);
+        writeVarint(buffer, sorted.length);
+        int previousRow = 0;
+        int previousCol = 0;
+        for (int[] minutia : sorted) {
+            writeVarint(buffer, zigzag(minutia[0] - previousRow));
+            writeVarint(buffer, zigzag(minutia[1] - previousCol));
+            writeVarint(buffer, zigzag(minutia[2]));
+            writeVarint(buffer, minutia.length > 3 ? minutia[3] : 0);
+            previousRow = minutia[0];
+            previousCol = minutia[1];
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Decodes a template starting at the given absolute position of the buffer.
+     * <p>
+     * The position of the buffer is not modified, so a single buffer can be
+     * read by several threads at the same time.
+     *
+     * @param buffer   the buffer containing the encoded template.
+     * @param position the absolute position of the template in the buffer.
+     * @return the list of minutiae, sorted by row then column.
+     */
+    public static List<int[]> decode(ByteBuffer buffer, int position) {
+        return decode(buffer, position, VERSION);
+    }
+
+    /**
+     * Decodes a template written by the given version of the encoding.
+     *
+     * @param buffer   the buffer containing the encoded template.
+     * @param position the absolute position of the template in the buffer.
+     * @param version  the version of the encoding, between {@link #MIN_VERSION}
+     *                 and {@link #VERSION}.
+     * @return the list of minutiae, sorted by row then column.
+     */
+    public static List<int[]> decode(ByteBuffer buffer, int position, int version) {
+        int[] cursor = {position};
+        int count = readVarint(buffer, cursor);
+        ArrayList<int[]> minutiae = new ArrayList<>(count);
+        int row = 0;
+        int col = 0;
+        for (int i = 0; i < count; i++) {
+            row += unzigzag(readVarint(buffer, cursor));
+            col += unzigzag(readVarint(buffer, cursor));
+            int angle = unzigzag(readVarint(buffer, cursor));
+            if (version >= 2) {
+                minutiae.add(new int[]{row, col, angle, readVarint(buffer, cursor)});
+            } else {
+                minutiae.add(new int[]{row, col, angle});
+            }
+        }
+        return minutiae;
+    }
+
+    /**
+     * Returns the number of minutiae of the template at the given absolute
+     * position without decoding it.
+     *
+     * @param buffer   the buffer containing the encoded template.
+     * @param position the absolute position of the template in the buffer.
+     * @return the number of minutiae.
+     */
+    public static int minutiaeCount(ByteBuffer buffer, int position) {
+        return readVarint(buffer, new int[]{position});
+    }
+
+    /**
+     * Writes a single template to disk.
+     *
+     * @param path     output file path.
+     * @param minutiae the list of minutiae.
+     * @return {@code true} if write operation was successful, {@code false}
+     * otherwise.
+     */
+    public static boolean writeTemplate(String path, List<int[]> minutiae) {
+        byte[] template = encode(minutiae);
+        ByteBuffer file = ByteBuffer.allocate(5 + template.length);
+        file.putInt(TEMPLATE_MAGIC).put((byte) VERSION).put(template);
+        try {
+            Files.write(Paths.get(path), file.array());
+            return true;
+        } catch (IOException e) {
+            System.out.println(e + " Filename: " + path);
+            return false;
+        }
+    }
+
+    /**
+     * Reads a single template from disk.
+     *
+     * @param path the template file path.
+     * @return the list of minutiae, or <code>null</code> on failure.
+     */
+    public static List<int[]> readTemplate(String path) {
+        try {
+            ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path)));
+            if (file.remaining() < 5 || file.getInt(0) != TEMPLATE_MAGIC || !isSupported(file.get(4))) {
+                System.out.println("Not a version " + MIN_VERSION + " to " + VERSION + " template file: " + path);
+                return null;
+            }
+            return decode(file, 5, file.get(4));
+        } catch (IOException e) {
+            System.out.println(e + " Filename: " + path);
+            return null;
+        }
+    }
+
+    /**
+     * @param version a version number read from a file.
+     * @return <code>true</code> if templates of that version can be decoded.
+     */
+    static boolean isSupported(int version) {
+        return version >= MIN_VERSION && version <= VERSION;
+    }
+
+    /**
+     * Maps a signed integer to an unsigned one so that small negative values
+     * stay small once written as a varint.
+     */
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes the value 7 bits at a time, the high bit of each byte telling
+     * whether another byte follows.
+     */
+    static void writeVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a varint at <code>cursor[0]</code> and advances the cursor past it.
+     */
+    static int readVarint(ByteBuffer buffer, int[] cursor) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(cursor[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
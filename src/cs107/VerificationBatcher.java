@@ -0,0 +1,211 @@
+package cs107;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Groups concurrent verifications against the same enrolled templates.
+ * <p>
+ * Requests are collected for at most <code>windowMillis</code> milliseconds,
+ * or until <code>maxBatch</code> of them are waiting. The batch is then split
+ * by template: each template is looked up once for its whole group and turned
+ * into a {@link RotatedTemplate}, whose rotations and row bands are computed
+ * once and used by every probe of the group. A request thus waits at most the
+ * window longer than it would on its own, in exchange for the shared work
+ * when the same templates are verified many times at peak.
+ * <p>
+ * A batcher that is closed, or whose executor refuses a group, fails the
+ * requests concerned with a {@link RejectedExecutionException}.
+ *
+ * @param <K> the type of the template identifiers.
+ */
+public final class VerificationBatcher<K> implements AutoCloseable {
+
+    /**
+     * A verification waiting for its batch.
+     */
+    private static final class Request<K> {
+        final K id;
+        final List<int[]> probe;
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        Request(K id, List<int[]> probe) {
+            this.id = id;
+            this.probe = probe;
+        }
+    }
+
+    private final Function<K, List<int[]>> templates;
+    private final long windowMillis;
+    private final int maxBatch;
+    private final Executor executor;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "verification-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+
+    private List<Request<K>> pending = new ArrayList<>();
+    private long generation;
+    private boolean closed;
+
+    /**
+     * Creates a batcher.
+     *
+     * @param templates    looks up the minutiae of a template, or returns
+     *                     <code>null</code> if the identifier is unknown.
+     * @param windowMillis the longest time a request waits for its batch, in
+     *                     milliseconds.
+     * @param maxBatch     the number of requests that triggers a batch without
+     *                     waiting for the end of the window.
+     * @param executor     the executor comparing the groups of a batch.
+     */
+    public VerificationBatcher(Function<K, List<int[]>> templates, long windowMillis, int maxBatch, Executor executor) {
+        this.templates = templates;
+        this.windowMillis = windowMillis;
+        this.maxBatch = maxBatch;
+        this.executor = executor;
+    }
+
+    /**
+     * Queues the comparison of a probe with an enrolled template.
+     *
+     * @param id    the identifier of the template.
+     * @param probe the list of minutiae of the probe.
+     * @return the future result of {@link RotatedTemplate#match(List)}, which
+     * is that of {@link Fingerprint#match(List, List)} with the probe first,
+     * failed with an {@link IllegalArgumentException} if the template is
+     * unknown.
+     */
+    public CompletableFuture<Boolean> verify(K id, List<int[]> probe) {
+        Request<K> request = new Request<>(id, probe);
+        List<Request<K>> batch = null;
+        synchronized (this) {
+            if (closed) {
+                request.future.completeExceptionally(new RejectedExecutionException("Batcher closed"));
+                return request.future;
+            }
+            pending.add(request);
+            if (pending.size() >= maxBatch) {
+                batch = takePending();
+            } else if (pending.size() == 1) {
+                long expected = generation;
+                timer.schedule(() -> flush(expected), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch != null) {
+            dispatch(batch);
+        }
+        return request.future;
+    }
+
+    /**
+     * @return the number of batches dispatched so far.
+     */
+    public long batches() {
+        return batches.get();
+    }
+
+    /**
+     * @return the number of template groups compared so far.
+     */
+    public long groups() {
+        return groups.get();
+    }
+
+    /**
+     * @return the number of requests dispatched so far.
+     */
+    public long requests() {
+        return requests.get();
+    }
+
+    /**
+     * Dispatches the requests still waiting and stops the timer. Later
+     * requests are rejected.
+     */
+    @Override
+    public void close() {
+        List<Request<K>> batch;
+        synchronized (this) {
+            closed = true;
+            batch = takePending();
+        }
+        dispatch(batch);
+        timer.shutdown();
+    }
+
+    /**
+     * Dispatches the pending requests if they are still the batch the timer was
+     * started for, and not a later one.
+     */
+    private void flush(long expected) {
+        List<Request<K>> batch;
+        synchronized (this) {
+            if (expected != generation) {
+                return;
+            }
+            batch = takePending();
+        }
+        dispatch(batch);
+    }
+
+    private List<Request<K>> takePending() {
+        List<Request<K>> batch = pending;
+        pending = new ArrayList<>();
+        generation++;
+        return batch;
+    }
+
+    private void dispatch(List<Request<K>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        batches.incrementAndGet();
+        requests.addAndGet(batch.size());
+        Map<K, List<Request<K>>> byTemplate = new LinkedHashMap<>();
+        for (Request<K> request : batch) {
+            byTemplate.computeIfAbsent(request.id, id -> new ArrayList<>()).add(request);
+        }
+        for (Map.Entry<K, List<Request<K>>> group : byTemplate.entrySet()) {
+            groups.incrementAndGet();
+            try {
+                executor.execute(() -> compare(group.getKey(), group.getValue()));
+            } catch (RejectedExecutionException e) {
+                for (Request<K> request : group.getValue()) {
+                    request.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private void compare(K id, List<Request<K>> group) {
+        try {
+            List<int[]> template = templates.apply(id);
+            if (template == null) {
+                throw new IllegalArgumentException("Unknown template " + id);
+            }
+            RotatedTemplate rotated = new RotatedTemplate(template);
+            for (Request<K> request : group) {
+                request.future.complete(rotated.match(request.probe));
+            }
+        } catch (RuntimeException e) {
+            for (Request<K> request : group) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+}
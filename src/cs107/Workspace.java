@@ -0,0 +1,182 @@
+package cs107;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Scratch buffers reused by the hot paths of {@link Fingerprint}, so that
+ * thinning, extracting and matching allocate nothing but their results once
+ * the buffers have grown to the largest image and template seen.
+ * <p>
+ * A workspace must only be used by one thread at a time. The methods of
+ * {@link Fingerprint} that do not take one use the workspace of the calling
+ * thread, {@link #current()}; a caller managing its own threads can create
+ * workspaces and pass them explicitly instead.
+ * <p>
+ * A workspace of the calling thread only pays off on threads that are reused,
+ * as in a pool. A thread started per task, such as a virtual thread, would
+ * grow new buffers for every task: such a task runs with
+ * {@link #withPooled(Supplier)}, which lends it a workspace of a shared pool
+ * as its current one.
+ * <p>
+ * The content of a buffer is only valid until the next call using the same
+ * workspace: a result that must be kept is copied out of it.
+ */
+public final class Workspace {
+
+    private static final ThreadLocal<Workspace> CURRENT = new ThreadLocal<>();
+    private static final Queue<Workspace> POOL = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The image buffers, and the height and width of the part of each one that
+     * may not be white.
+     */
+    private final boolean[][][] images = new boolean[2][0][0];
+    private final int[] usedHeights = new int[2];
+    private final int[] usedWidths = new int[2];
+
+    private final boolean[] neighbours = new boolean[8];
+    private int[] pixels = new int[0];
+
+    private int[][] minutiae = new int[0][];
+    private final ArrayList<int[]> minutiaList = new ArrayList<>();
+
+    /**
+     * @return the workspace of the calling thread.
+     */
+    public static Workspace current() {
+        Workspace workspace = CURRENT.get();
+        if (workspace == null) {
+            workspace = new Workspace();
+            CURRENT.set(workspace);
+        }
+        return workspace;
+    }
+
+    /**
+     * Runs an action with a workspace of the shared pool as the workspace of
+     * the calling thread, and gives the workspace back to the pool afterwards.
+     * The pool holds at most as many workspaces as actions ever ran at the
+     * same time.
+     *
+     * @param action the action, whose calls to {@link Fingerprint} use the
+     *               pooled workspace.
+     * @param <T>    the type of the result.
+     * @return the result of the action.
+     */
+    public static <T> T withPooled(Supplier<T> action) {
+        Workspace previous = CURRENT.get();
+        Workspace pooled = POOL.poll();
+        CURRENT.set(pooled != null ? pooled : new Workspace());
+        try {
+            return action.get();
+        } finally {
+            POOL.offer(CURRENT.get());
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Returns one of the image buffers, white outside of the given size.
+     * <p>
+     * The buffer may be larger than the size: pixels out of the given size
+     * read as white, as pixels out of an image do for
+     * {@link Fingerprint#getNeighbours(boolean[][], int, int)}.
+     *
+     * @param index  the buffer, <code>0</code> or <code>1</code>.
+     * @param height the number of rows needed.
+     * @param width  the number of columns needed.
+     * @return the buffer, whose content within the size is unspecified.
+     */
+    boolean[][] image(int index, int height, int width) {
+        boolean[][] image = images[index];
+        if (image.length < height || image.length > 0 && image[0].length < width) {
+            image = new boolean[Math.max(height, image.length)][Math.max(width, image.length > 0 ? image[0].length : 0)];
+            images[index] = image;
+        } else {
+            // clear what an earlier, larger image left around the size
+            for (int row = 0; row < usedHeights[index]; row++) {
+                if (row >= height) {
+                    Arrays.fill(image[row], 0, usedWidths[index], false);
+                } else if (usedWidths[index] > width) {
+                    Arrays.fill(image[row], width, usedWidths[index], false);
+                }
+            }
+        }
+        usedHeights[index] = height;
+        usedWidths[index] = width;
+        return image;
+    }
+
+    /**
+     * Returns one of the image buffers, all white.
+     *
+     * @param index  the buffer, <code>0</code> or <code>1</code>.
+     * @param height the number of rows needed.
+     * @param width  the number of columns needed.
+     * @return the buffer.
+     */
+    boolean[][] whiteImage(int index, int height, int width) {
+        boolean[][] image = image(index, height, width);
+        for (int row = 0; row < height; row++) {
+            Arrays.fill(image[row], 0, width, false);
+        }
+        return image;
+    }
+
+    /**
+     * Returns a buffer of one int per pixel.
+     *
+     * @param length the number of pixels.
+     * @return the buffer, whose content is unspecified.
+     */
+    int[] pixels(int length) {
+        if (pixels.length < length) {
+            pixels = new int[length];
+        }
+        return pixels;
+    }
+
+    /**
+     * @return the buffer of the neighbours of a pixel.
+     */
+    boolean[] neighbours() {
+        return neighbours;
+    }
+
+    /**
+     * Returns a list of minutia buffers, each one as long as the minutia of
+     * the same index, so that a template mixing minutiae with and without type
+     * gets its buffers back on the next call.
+     *
+     * @param like the minutiae giving the number and the lengths, possibly the
+     *             list returned by the previous call.
+     * @return the list of minutiae, whose content is unspecified.
+     */
+    List<int[]> minutiae(List<int[]> like) {
+        int count = like.size();
+        if (minutiae.length < count) {
+            minutiae = Arrays.copyOf(minutiae, Math.max(count, 2 * minutiae.length));
+        }
+        // like may be the list returned by the previous call, read it first
+        for (int i = 0; i < count; i++) {
+            int length = like.get(i).length;
+            if (minutiae[i] == null || minutiae[i].length != length) {
+                minutiae[i] = new int[length];
+            }
+        }
+        minutiaList.clear();
+        for (int i = 0; i < count; i++) {
+            minutiaList.add(minutiae[i]);
+        }
+        return minutiaList;
+    }
+}